@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.Point;
+import de.cgawron.go.SimpleGoban;
+import de.cgawron.go.sgf.GameTree;
+
+/**
+ * Benchmarks of the board operations: moves, copies and liberty counting on
+ * {@link AnalysisGoban} and {@link SimpleGoban}, starting from the position
+ * of <code>test/sgf/evaluate1.sgf</code>.
+ *
+ * The operations take nanoseconds, so they must not depend on a setup per
+ * invocation. Only the moves change the board; they are played on a batch
+ * of {@value #BATCH} boards per invocation, see {@link MoveBoards}.
+ *
+ * @author Christian Gawron
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GobanBenchmark
+{
+	/** The number of boards a move is played on per invocation. */
+	static final int BATCH = 1024;
+
+	private static Goban position;
+
+	/** An empty point of the position and a stone with its chain. */
+	private static Point move;
+	private static Point stone;
+
+	private AnalysisGoban analysisGoban;
+	private AnalysisGoban target;
+	private SimpleGoban simpleGoban;
+
+	/**
+	 * Boards at the position, reset by a cheap copy before each invocation
+	 * of a move benchmark. The reset is not measured, and its overhead is
+	 * spread over the {@value GobanBenchmark#BATCH} moves of an invocation.
+	 */
+	@State(Scope.Thread)
+	public static class MoveBoards
+	{
+		private final AnalysisGoban[] analysisGobans = new AnalysisGoban[BATCH];
+		private final SimpleGoban[] simpleGobans = new SimpleGoban[BATCH];
+
+		@Setup(Level.Trial)
+		public void createBoards() throws Exception
+		{
+			loadPosition();
+			for (int i = 0; i < BATCH; i++) {
+				analysisGobans[i] = new AnalysisGoban(position);
+				simpleGobans[i] = new SimpleGoban(position);
+			}
+		}
+
+		@Setup(Level.Invocation)
+		public void resetBoards()
+		{
+			for (int i = 0; i < BATCH; i++) {
+				analysisGobans[i].copy(position);
+				simpleGobans[i].copy(position);
+			}
+		}
+	}
+
+	private static synchronized void loadPosition() throws Exception
+	{
+		if (position != null)
+			return;
+		position = new GameTree(new File("test/sgf/evaluate1.sgf")).getLeafs().get(0).getGoban();
+		int size = position.getBoardSize();
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if (move == null && position.getStone(x, y) == BoardType.EMPTY)
+					move = new Point(x, y);
+				if (stone == null && position.getStone(x, y) != BoardType.EMPTY)
+					stone = new Point(x, y);
+			}
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void createBoards() throws Exception
+	{
+		loadPosition();
+		analysisGoban = new AnalysisGoban(position);
+		simpleGoban = new SimpleGoban(position);
+		target = new AnalysisGoban(position);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void analysisGobanMove(MoveBoards boards, Blackhole blackhole)
+	{
+		for (AnalysisGoban goban : boards.analysisGobans)
+			blackhole.consume(goban.move(move, BoardType.BLACK));
+	}
+
+	@Benchmark
+	public Goban analysisGobanClone()
+	{
+		return analysisGoban.clone();
+	}
+
+	@Benchmark
+	public AnalysisGoban analysisGobanCopy()
+	{
+		target.copy(analysisGoban);
+		return target;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void simpleGobanMove(MoveBoards boards, Blackhole blackhole)
+	{
+		for (SimpleGoban goban : boards.simpleGobans)
+			blackhole.consume(goban.move(move.getX(), move.getY(), BoardType.BLACK));
+	}
+
+	/**
+	 * Count the liberties of a chain. {@link SimpleGoban#countLiberties(Point)}
+	 * doesn't start a new walk, so all calls after the first would return 0.
+	 */
+	@Benchmark
+	public int simpleGobanCountLiberties()
+	{
+		return simpleGoban.countLiberties(stone.getX(), stone.getY(), true);
+	}
+}
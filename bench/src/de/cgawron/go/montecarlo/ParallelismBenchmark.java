@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.Point;
+import de.cgawron.go.montecarlo.Evaluator.Parallelism;
+import de.cgawron.go.sgf.GameTree;
+
+/**
+ * Compares the {@link Parallelism} modes on a set of positions. Each
+ * position, the last one of an SGF file, is searched with the same budget in
+ * each mode. For each mode the mean playouts per second and the fraction of
+ * positions in which it chooses the same move as {@link Parallelism#TREE}
+ * are printed.
+ *
+ * <pre>
+ * ParallelismBenchmark [-threads n] [-simulations n] [-color black|white] [-komi k] file.sgf ...
+ * </pre>
+ *
+ * @author Christian Gawron
+ */
+public class ParallelismBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int numSimulations = 10000;
+		BoardType color = BoardType.BLACK;
+		double komi = 6.5;
+		List<Goban> positions = new ArrayList<Goban>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads"))
+				numThreads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-simulations"))
+				numSimulations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-color"))
+				color = args[++i].equalsIgnoreCase("white") ? BoardType.WHITE : BoardType.BLACK;
+			else if (args[i].equals("-komi"))
+				komi = Double.parseDouble(args[++i]);
+			else
+				positions.add(new GameTree(new File(args[i])).getLeafs().get(0).getGoban());
+		}
+		if (positions.isEmpty()) {
+			System.err.println("usage: ParallelismBenchmark [-threads n] [-simulations n] "
+			                   + "[-color black|white] [-komi k] file.sgf ...");
+			System.exit(1);
+		}
+
+		Parallelism[] modes = Parallelism.values();
+		Point[][] moves = new Point[modes.length][positions.size()];
+		double[] playoutsPerSecond = new double[modes.length];
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numThreads = numThreads;
+		Evaluator.parameters.numSimulations = numSimulations;
+		Evaluator.parameters.earlyStopping = false;
+		for (int m = 0; m < modes.length; m++) {
+			Evaluator.parameters.parallelism = modes[m];
+			for (int i = 0; i < positions.size(); i++) {
+				AnalysisNode root = new AnalysisNode(positions.get(i), color, komi);
+				evaluator.evaluate(root);
+				moves[m][i] = root.getBestChild().getMove();
+				playoutsPerSecond[m] += evaluator.getPlayoutsPerSecond() / positions.size();
+			}
+		}
+
+		System.out.println(String.format("%-6s %12s %10s", "mode", "playouts/s", "agreement"));
+		for (int m = 0; m < modes.length; m++) {
+			int agree = 0;
+			for (int i = 0; i < positions.size(); i++) {
+				Point move = moves[m][i];
+				Point reference = moves[Parallelism.TREE.ordinal()][i];
+				if (move == null ? reference == null : move.equals(reference))
+					agree++;
+			}
+			System.out.println(String.format("%-6s %12.0f %9.0f%%", modes[m], playoutsPerSecond[m],
+			                                 100.0 * agree / positions.size()));
+		}
+		System.exit(0);
+	}
+}
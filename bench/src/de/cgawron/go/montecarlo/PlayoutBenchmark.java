@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.sgf.GameTree;
+
+/**
+ * Benchmarks of the move generation and of complete playouts from the
+ * position of <code>test/sgf/evaluate1.sgf</code>. The playouts are run
+ * with {@link Evaluator.EvaluatorParameters#lightPlayout} on and off.
+ *
+ * @author Christian Gawron
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayoutBenchmark
+{
+	@Param({ "true", "false" })
+	public boolean lightPlayout;
+
+	private Goban position;
+	private AnalysisNode root;
+	private AnalysisNode[] sequence;
+
+	@Setup(Level.Trial)
+	public void loadPosition() throws Exception
+	{
+		new Evaluator();
+		Evaluator.parameters.lightPlayout = lightPlayout;
+		position = new GameTree(new File("test/sgf/evaluate1.sgf")).getLeafs().get(0).getGoban();
+		sequence = new AnalysisNode[Evaluator.parameters.maxMoves + 1];
+	}
+
+	@Setup(Level.Invocation)
+	public void createRoot()
+	{
+		root = new AnalysisNode(position, BoardType.BLACK);
+		sequence[0] = root;
+	}
+
+	@Benchmark
+	public AnalysisNode selectRandomMCMove()
+	{
+		return root.selectRandomMCMove();
+	}
+
+	@Benchmark
+	public double evaluateByMC()
+	{
+		return root.evaluateByMC(sequence, 0, null);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.sgf.GameTree;
+
+/**
+ * Benchmark of a complete search of <code>test/sgf/evaluate1.sgf</code> with
+ * a fixed number of simulations, at several thread counts. Early stopping
+ * is switched off, so each search does the same amount of work.
+ *
+ * @author Christian Gawron
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark
+{
+	@Param({ "1", "2", "4", "8" })
+	public int numThreads;
+
+	@Param({ "2000" })
+	public int numSimulations;
+
+	private Goban position;
+	private Evaluator evaluator;
+
+	@Setup(Level.Trial)
+	public void createEvaluator() throws Exception
+	{
+		position = new GameTree(new File("test/sgf/evaluate1.sgf")).getLeafs().get(0).getGoban();
+		evaluator = new Evaluator();
+		Evaluator.parameters.numThreads = numThreads;
+		Evaluator.parameters.numSimulations = numSimulations;
+		Evaluator.parameters.earlyStopping = false;
+		Evaluator.parameters.checkTerritory = false;
+	}
+
+	@TearDown(Level.Trial)
+	public void shutdown()
+	{
+		evaluator.getExecutor().shutdown();
+	}
+
+	@Benchmark
+	public double evaluate()
+	{
+		return evaluator.evaluate(new AnalysisNode(position, BoardType.BLACK));
+	}
+}
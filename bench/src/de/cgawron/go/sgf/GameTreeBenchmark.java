@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.sgf;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of parsing all SGF files of <code>test/sgf</code>.
+ *
+ * @author Christian Gawron
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameTreeBenchmark
+{
+	private File[] files;
+
+	@Setup(Level.Trial)
+	public void listFiles()
+	{
+		files = new File("test/sgf").listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file)
+			{
+				return file.getName().endsWith(".sgf");
+			}
+		});
+		if (files == null || files.length == 0)
+			throw new IllegalStateException("no SGF files in test/sgf");
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) throws Exception
+	{
+		for (File file : files)
+			blackhole.consume(new GameTree(file));
+	}
+}
@@ -6,7 +6,8 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Marks a method as an GTP command
+ * Marks a method as an GTP command. The name of the command is the name of
+ * the method, unless a {@link #value()} is given.
  * 
  * @author Christian Gawron
  * 
@@ -14,4 +15,6 @@ import java.lang.annotation.Target;
 public @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 @interface GtpCmd {
+	/** The name of the command, if it is not a valid method name. */
+	String value() default "";
 }
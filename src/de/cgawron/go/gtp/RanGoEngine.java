@@ -3,6 +3,10 @@ package de.cgawron.go.gtp;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
 
 import net.sf.gogui.go.GoColor;
 import net.sf.gogui.go.GoPoint;
@@ -15,6 +19,8 @@ import de.cgawron.go.Point;
 import de.cgawron.go.montecarlo.AnalysisGoban;
 import de.cgawron.go.montecarlo.AnalysisNode;
 import de.cgawron.go.montecarlo.Evaluator;
+import de.cgawron.go.montecarlo.Ownership;
+import de.cgawron.go.montecarlo.TimeControl;
 
 public class RanGoEngine extends GtpEngine
 {
@@ -22,16 +28,41 @@ public class RanGoEngine extends GtpEngine
 	private static final String OK = "ok"; //$NON-NLS-1$
 	private static final String ENGINE_VERSION = "0.1"; //$NON-NLS-1$
 	private static final String ENGINE_NAME = "RanGoEngine"; //$NON-NLS-1$
+	private static final String METRICS_COMMAND = "rango-metrics"; //$NON-NLS-1$
+	private static final String OWNERSHIP_COMMAND = "rango-ownership"; //$NON-NLS-1$
+	private static final String CRITICALITY_COMMAND = "rango-criticality"; //$NON-NLS-1$
+
+	private static Logger logger = Logger.getLogger(RanGoEngine.class.getName());
 
 	private AnalysisGoban goban = null;
 	private Evaluator evaluator = new Evaluator();
 
+	/**
+	 * The root of the search tree for the current position, kept between
+	 * commands so the next search starts with the statistics collected for
+	 * the moves actually played. Null if there is no tree.
+	 */
+	private AnalysisNode tree = null;
+
+	private TimeControl timeControl = new TimeControl();
+
+	/** If set, the engine searches while waiting for the opponent's move. */
+	private boolean ponder = false;
+
+	/** The thread searching during the opponent's turn, or null. */
+	private Thread ponderThread = null;
+
 	public RanGoEngine(PrintStream log)
 	{
 		super(log);
 		setName(ENGINE_NAME);
 		setVersion(ENGINE_VERSION);
 		registerCommands(this);
+		try {
+			evaluator.getMetrics().register(ENGINE_NAME);
+		} catch (JMException ex) {
+			logger.log(Level.WARNING, "search metrics not registered", ex);
+		}
 	}
 
 	private void registerCommands(final Object o)
@@ -56,7 +87,23 @@ public class RanGoEngine extends GtpEngine
 
 	private String commandName(Method m)
 	{
-		return m.getName();
+		String name = m.getAnnotation(GtpCmd.class).value();
+		return name.length() > 0 ? name : m.getName();
+	}
+
+	/**
+	 * Stop pondering before each command, so the command sees a consistent
+	 * tree and the search threads are free. Only reading the metrics or the
+	 * ownership doesn't disturb the search.
+	 */
+	@Override
+	public void handleCommand(GtpCommand cmd) throws GtpError
+	{
+		String command = cmd.getCommand();
+		if (!command.equals(METRICS_COMMAND) && !command.equals(OWNERSHIP_COMMAND)
+		    && !command.equals(CRITICALITY_COMMAND))
+			stopPondering();
+		super.handleCommand(cmd);
 	}
 
 	@GtpCmd
@@ -64,6 +111,7 @@ public class RanGoEngine extends GtpEngine
 	{
 		int size = cmd.getIntArg();
 		goban = new AnalysisGoban(size);
+		tree = null;
 		cmd.setResponse(OK);
 	}
 
@@ -71,6 +119,7 @@ public class RanGoEngine extends GtpEngine
 	public void clear_board(GtpCommand cmd) throws GtpError
 	{
 		goban.clear();
+		tree = null;
 		cmd.setResponse(OK);
 	}
 
@@ -81,7 +130,10 @@ public class RanGoEngine extends GtpEngine
 		GoPoint p = cmd.getPointArg(1, goban.getBoardSize());
 
 		BoardType color = c == GoColor.BLACK ? BoardType.BLACK : BoardType.WHITE;
-		goban.move(p.getX(), p.getY(), color);
+		Point move = p == null ? null : new Point(p.getX(), p.getY());
+		if (move != null)
+			goban.move(move, color);
+		advanceTree(move, color);
 		cmd.setResponse(OK);
 	}
 
@@ -89,17 +141,191 @@ public class RanGoEngine extends GtpEngine
 	public void genmove(GtpCommand cmd) throws GtpError
 	{
 		GoColor c = cmd.getColorArg();
-		AnalysisNode node = new AnalysisNode(goban, c == GoColor.BLACK ? BoardType.BLACK : BoardType.WHITE, 1.5);
-		evaluator.evaluate(node);
+		BoardType color = c == GoColor.BLACK ? BoardType.BLACK : BoardType.WHITE;
+		AnalysisNode node = tree != null && tree.getMovingColor() == color ? tree : new AnalysisNode(goban, color, 1.5);
+		long start = System.currentTimeMillis();
+		long time = timeControl.timeForMove(color, emptyPoints());
+		evaluator.evaluate(node, time > 0 ? start + time : 0);
+		timeControl.used(color, (System.currentTimeMillis() - start) / 1000.0);
+		tree = node;
 		AnalysisNode best = node.getBestChild();
-		goban = best.getGoban();
 		Point p = best.getMove();
-		cmd.getResponse().append(String.format("%c%d", 'A' + p.getX(), 1 + p.getY()));
+		if (p == null) {
+			advanceTree(null, color);
+			cmd.getResponse().append("pass");
+		}
+		else {
+			goban.move(p, color);
+			advanceTree(p, color);
+			cmd.getResponse().append(String.format("%c%d", 'A' + p.getX(), 1 + p.getY()));
+		}
+		if (ponder)
+			startPondering();
+	}
+
+	/**
+	 * Switch pondering on or off. Without argument, the current setting is
+	 * returned.
+	 */
+	@GtpCmd("rango-ponder")
+	public void rango_ponder(GtpCommand cmd) throws GtpError
+	{
+		cmd.checkNuArgLessEqual(1);
+		if (cmd.getNuArg() == 1) {
+			String arg = cmd.getArg(0);
+			if (arg.equals("on"))
+				ponder = true;
+			else if (arg.equals("off"))
+				ponder = false;
+			else
+				throw new GtpError("expected on or off: " + arg);
+		}
+		cmd.setResponse(ponder ? "on" : "off");
+	}
+
+	/**
+	 * Report the metrics of the running or the last search, one
+	 * <code>name value</code> pair per line.
+	 */
+	@GtpCmd(METRICS_COMMAND)
+	public void rango_metrics(GtpCommand cmd) throws GtpError
+	{
+		cmd.checkArgNone();
+		cmd.setResponse(evaluator.getMetrics().toString());
+	}
+
+	/**
+	 * Report the expected owner of each point in the running or the last
+	 * search, from 1 for black to -1 for white, as a GoGui
+	 * <code>dboard</code>.
+	 */
+	@GtpCmd(OWNERSHIP_COMMAND)
+	public void rango_ownership(GtpCommand cmd) throws GtpError
+	{
+		cmd.checkArgNone();
+		cmd.setResponse(Ownership.format(evaluator.getOwnership().getOwnership()));
+	}
+
+	/**
+	 * Report the criticality of each point in the running or the last
+	 * search as a GoGui <code>dboard</code>.
+	 */
+	@GtpCmd(CRITICALITY_COMMAND)
+	public void rango_criticality(GtpCommand cmd) throws GtpError
+	{
+		cmd.checkArgNone();
+		cmd.setResponse(Ownership.format(evaluator.getOwnership().getCriticality()));
+	}
+
+	/**
+	 * Search the position of {@link #tree} in the background until the next
+	 * command arrives. The tree is then re-rooted on the opponent's move by
+	 * <code>play</code>, keeping the statistics of that reply.
+	 */
+	private void startPondering()
+	{
+		final AnalysisNode node = tree;
+		if (node == null)
+			return;
+		ponderThread = new Thread("ponder") {
+			@Override
+			public void run()
+			{
+				evaluator.ponder(node);
+			}
+		};
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+
+	private void stopPondering()
+	{
+		Thread thread = ponderThread;
+		if (thread == null)
+			return;
+		ponderThread = null;
+		// the search might not have started when stop is called first
+		while (thread.isAlive()) {
+			evaluator.stop();
+			try {
+				thread.join(10);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	@GtpCmd
+	public void time_settings(GtpCommand cmd) throws GtpError
+	{
+		cmd.checkNuArg(3);
+		timeControl.setTimeSettings(cmd.getIntArg(0), cmd.getIntArg(1), cmd.getIntArg(2));
+		cmd.setResponse(OK);
+	}
+
+	@GtpCmd("kgs-time_settings")
+	public void kgs_time_settings(GtpCommand cmd) throws GtpError
+	{
+		String system = cmd.getArg(0);
+		if (system.equals("none")) {
+			cmd.checkNuArg(1);
+			timeControl.setNone();
+		}
+		else if (system.equals("absolute")) {
+			cmd.checkNuArg(2);
+			timeControl.setAbsolute(cmd.getIntArg(1));
+		}
+		else if (system.equals("byoyomi")) {
+			cmd.checkNuArg(4);
+			timeControl.setJapanese(cmd.getIntArg(1), cmd.getIntArg(2), cmd.getIntArg(3));
+		}
+		else if (system.equals("canadian")) {
+			cmd.checkNuArg(4);
+			timeControl.setTimeSettings(cmd.getIntArg(1), cmd.getIntArg(2), cmd.getIntArg(3));
+		}
+		else
+			throw new GtpError("unknown time system " + system);
+		cmd.setResponse(OK);
+	}
+
+	@GtpCmd
+	public void time_left(GtpCommand cmd) throws GtpError
+	{
+		cmd.checkNuArg(3);
+		GoColor c = cmd.getColorArg(0);
+		BoardType color = c == GoColor.BLACK ? BoardType.BLACK : BoardType.WHITE;
+		timeControl.setTimeLeft(color, cmd.getIntArg(1), cmd.getIntArg(2));
+		cmd.setResponse(OK);
+	}
+
+	private int emptyPoints()
+	{
+		int size = goban.getBoardSize();
+		int empty = 0;
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				if (goban.getStone(x, y) == BoardType.EMPTY)
+					empty++;
+		return empty;
+	}
+
+	/**
+	 * Re-root the search tree at the child for a move, or drop it if the
+	 * tree doesn't match the move.
+	 */
+	private void advanceTree(Point move, BoardType color)
+	{
+		if (tree != null && tree.getMovingColor() == color)
+			tree = tree.advance(move, goban);
+		else
+			tree = null;
 	}
 
 	public static void main(String args[]) throws IOException
 	{
-		GtpEngine engine = new RanGoEngine(System.err);
+		RanGoEngine engine = new RanGoEngine(System.err);
 		engine.mainLoop(System.in, System.out);
+		engine.stopPondering();
 	}
 }
@@ -1,6 +1,7 @@
 package de.cgawron.go.montecarlo;
 
 import java.util.AbstractCollection;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -10,7 +11,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
@@ -46,6 +46,7 @@ public class AnalysisGoban extends AbstractGoban
 		{
 			super(color, p);
 			liberties = new TreeSet<Point>(libs);
+			addAtariStones(color, atariStones());
 		}
 
 		protected Chain(Chain parent)
@@ -56,16 +57,50 @@ public class AnalysisGoban extends AbstractGoban
 
 		public void addLiberty(Point p)
 		{
+			int atari = atariStones();
 			if (parent != null)
 				copy();
 			liberties.add(p);
+			updateAtariStones(atari);
 		}
 
 		public void addLiberties(Collection<Point> points)
 		{
+			int atari = atariStones();
 			if (parent != null)
 				copy();
 			liberties.addAll(points);
+			updateAtariStones(atari);
+		}
+
+		@Override
+		public void addPoint(Point p)
+		{
+			int atari = atariStones();
+			super.addPoint(p);
+			updateAtariStones(atari);
+		}
+
+		/**
+		 * Get the number of stones of this chain if it is in atari, 0
+		 * otherwise.
+		 */
+		int atariStones()
+		{
+			Set<Point> libs = parent != null ? ((Chain) parent).liberties : liberties;
+			return libs != null && libs.size() == 1 ? size() : 0;
+		}
+
+		/**
+		 * Update the atari count of the goban after the liberties or the size
+		 * of this chain changed.
+		 * 
+		 * @param atari
+		 *            the result of {@link #atariStones()} before the change.
+		 */
+		private void updateAtariStones(int atari)
+		{
+			addAtariStones(getColor(), atariStones() - atari);
 		}
 
 		public Cluster clone(AnalysisGoban goban)
@@ -99,6 +134,7 @@ public class AnalysisGoban extends AbstractGoban
 		{
 			if (parent != null)
 				copy();
+			addAtariStones(chain.getColor(), -chain.atariStones());
 			for (Point p : chain.getPoints()) {
 				addPoint(p);
 				goban.setBoardRep(p, this);
@@ -109,7 +145,9 @@ public class AnalysisGoban extends AbstractGoban
 				addNeighbor(neighbor);
 			}
 			removeNeighbor(chain);
+			int atari = atariStones();
 			liberties.addAll(chain.getLiberties());
+			updateAtariStones(atari);
 			if (group != null) {
 				if (group != chain.getGroup()) {
 					group.join(chain.getGroup(), goban);
@@ -121,9 +159,11 @@ public class AnalysisGoban extends AbstractGoban
 
 		public void removeLiberty(Point p)
 		{
+			int atari = atariStones();
 			if (parent != null)
 				copy();
 			liberties.remove(p);
+			updateAtariStones(atari);
 		}
 
 		@Override
@@ -264,6 +304,14 @@ public class AnalysisGoban extends AbstractGoban
 			if (parent != null)
 				copy();
 			neighbors.add(cluster.getRep());
+			neighborsChanged();
+		}
+
+		/**
+		 * Called after neighbors have been added or removed.
+		 */
+		protected void neighborsChanged()
+		{
 		}
 
 		public void addPoint(Point p)
@@ -383,11 +431,13 @@ public class AnalysisGoban extends AbstractGoban
 			if (parent != null)
 				copy();
 			neighbors.remove(cluster.getRep());
+			neighborsChanged();
 		}
 
 		public void clearNeighbors()
 		{
 			neighbors.clear();
+			neighborsChanged();
 		}
 
 		/*
@@ -444,13 +494,24 @@ public class AnalysisGoban extends AbstractGoban
 
 	public class Eye extends Cluster
 	{
+		/** The value of owner if it has to be determined. */
+		private static final int UNKNOWN = 2;
+
 		/** This eye is definitely a real eye for a group */
 		private boolean real;
 		private BoardType eyeColor;
 
+		/**
+		 * The owner of the points for area scoring: 1 for black, -1 for white
+		 * and 0 if the eye touches both colors or none. It only depends on the
+		 * colors of the neighbors, so it is kept until they change.
+		 */
+		private int owner = UNKNOWN;
+
 		protected Eye(Eye parent)
 		{
 			super(parent);
+			this.owner = parent.owner;
 		}
 
 		public Eye(List<Point> points)
@@ -515,6 +576,31 @@ public class AnalysisGoban extends AbstractGoban
 			}
 		}
 
+		@Override
+		protected void neighborsChanged()
+		{
+			owner = UNKNOWN;
+		}
+
+		/**
+		 * Get the owner of the points of this eye, see {@link #owner}.
+		 */
+		final int getOwner()
+		{
+			if (owner == UNKNOWN) {
+				boolean touchBlack = false;
+				boolean touchWhite = false;
+				for (Cluster c : getNeighbors()) {
+					if (c.getColor() == BoardType.BLACK)
+						touchBlack = true;
+					else if (c.getColor() == BoardType.WHITE)
+						touchWhite = true;
+				}
+				owner = touchBlack == touchWhite ? 0 : touchBlack ? 1 : -1;
+			}
+			return owner;
+		}
+
 		public final BoardType getEyeColor()
 		{
 			if (parent != null)
@@ -647,6 +733,14 @@ public class AnalysisGoban extends AbstractGoban
 	protected Set<Group> groups;
 	Cluster[] boardRep;
 	private int _hash;
+	/** The 64 bit Zobrist key, maintained incrementally. */
+	private long key;
+	/** The number of black and white stones in atari. */
+	private int blackAtariStones;
+	private int whiteAtariStones;
+	/** The number of black and white stones on the board. */
+	private int blackStones;
+	private int whiteStones;
 	private List<Point> allPoints;
 
 	public AnalysisGoban()
@@ -668,15 +762,64 @@ public class AnalysisGoban extends AbstractGoban
 		initBoard();
 	}
 
+	/**
+	 * Calculate the area score, assuming all stones on the board are alive.
+	 * The stones are counted when they are placed or captured and the owner of
+	 * an empty region is kept by its {@link Eye}, so only the empty regions
+	 * are visited.
+	 * 
+	 * @param territory
+	 *            if not null, +1 is added for each point owned by black, -1 for
+	 *            each point owned by white.
+	 * @return the area score, positive values are good for black.
+	 */
 	@Override
 	public int chineseScore(double[][] territory)
 	{
-		/*
-		 * if (logger.isLoggable(Level.INFO)) logger.info("chineseScore: \n" +
-		 * this + ", clusters: " + clusters);
-		 */
-		int score = 0;
+		if (territory == null)
+			return areaScore(null);
+		int[] owner = new int[boardRep.length];
+		int score = areaScore(owner);
+		Ownership.addTo(territory, owner);
+		return score;
+	}
 
+	/**
+	 * Calculate the area score like {@link #chineseScore(double[][])}.
+	 * 
+	 * @param owner
+	 *            if not null, the owner of each point is stored: 1 for black,
+	 *            -1 for white and 0 for neutral points.
+	 * @return the area score, positive values are good for black.
+	 */
+	public int areaScore(int[] owner)
+	{
+		int score = blackStones - whiteStones;
+		for (Cluster cluster : clusters) {
+			if (cluster.getColor() == BoardType.EMPTY)
+				score += ((Eye) cluster).getOwner() * cluster.size();
+		}
+		assert score == countScore() : "inconsistent score";
+
+		if (owner != null) {
+			for (int i = 0; i < boardRep.length; i++) {
+				Cluster cluster = boardRep[i];
+				BoardType color = cluster.getColor();
+				if (color == BoardType.BLACK)
+					owner[i] = 1;
+				else if (color == BoardType.WHITE)
+					owner[i] = -1;
+				else
+					owner[i] = ((Eye) cluster).getOwner();
+			}
+		}
+
+		return score;
+	}
+
+	private int countScore()
+	{
+		int score = 0;
 		for (Cluster cluster : clusters) {
 			switch (cluster.getColor()) {
 			case BLACK:
@@ -692,31 +835,23 @@ public class AnalysisGoban extends AbstractGoban
 				break;
 			}
 		}
+		return score;
+	}
 
-		if (territory != null) {
-			for (Cluster cluster : clusters) {
-				double v = 0;
-				switch (cluster.getColor()) {
-				case BLACK:
-					v = 1;
-					break;
-
-				case WHITE:
-					v = -1;
-					break;
-
-				case EMPTY:
-					v = Math.signum(scoreEmpty(cluster));
-					break;
-				}
-
-				for (Point p : cluster.getPoints()) {
-					territory[p.getX()][p.getY()] += v;
-				}
-			}
-		}
+	/**
+	 * Get the number of stones of <code>color</code> on the board.
+	 */
+	public int getStoneCount(BoardType color)
+	{
+		return color == BoardType.BLACK ? blackStones : color == BoardType.WHITE ? whiteStones : 0;
+	}
 
-		return score;
+	private void addStones(BoardType color, int delta)
+	{
+		if (color == BoardType.BLACK)
+			blackStones += delta;
+		else if (color == BoardType.WHITE)
+			whiteStones += delta;
 	}
 
 	/**
@@ -774,8 +909,11 @@ public class AnalysisGoban extends AbstractGoban
 			assert goban.checkGoban() : "copy called with inconsistent goban";
 			this.allPoints = goban.allPoints;
 			Map<Cluster, Cluster> clones = new HashMap<Cluster, Cluster>();
-			// TODO copy also _hash, but that means that move() etc. need to
-			// update _hash
+			this.key = goban.key;
+			this.blackAtariStones = goban.blackAtariStones;
+			this.whiteAtariStones = goban.whiteAtariStones;
+			this.blackStones = goban.blackStones;
+			this.whiteStones = goban.whiteStones;
 			this.boardRep = new Cluster[boardSize * boardSize];
 			for (Cluster c : goban.clusters) {
 				Cluster nc = c.clone(this);
@@ -792,7 +930,26 @@ public class AnalysisGoban extends AbstractGoban
 		}
 	}
 
+	/**
+	 * Get the number of stones of <code>movingColor</code> in atari. The count
+	 * is maintained by the chains whenever their liberties or size change.
+	 */
 	public int getAtariCount(BoardType movingColor)
+	{
+		int atariCount = movingColor == BoardType.BLACK ? blackAtariStones : whiteAtariStones;
+		assert atariCount == countAtariStones(movingColor) : "inconsistent atari count";
+		return atariCount;
+	}
+
+	private void addAtariStones(BoardType color, int delta)
+	{
+		if (color == BoardType.BLACK)
+			blackAtariStones += delta;
+		else
+			whiteAtariStones += delta;
+	}
+
+	private int countAtariStones(BoardType movingColor)
 	{
 		int atariCount = 0;
 		for (Cluster c : clusters) {
@@ -887,6 +1044,8 @@ public class AnalysisGoban extends AbstractGoban
 		else
 			stone.removePoint(this, p);
 		lastMove = p;
+		key ^= Zobrist.key(index(p), color);
+		addStones(color, 1);
 
 		List<Point> emptyNeighbors = new ArrayList<Point>(4);
 		List<Chain> friendlyNeighbors = new ArrayList<Chain>(4);
@@ -913,7 +1072,7 @@ public class AnalysisGoban extends AbstractGoban
 			clusters.add(myChain);
 			setBoardRep(p, myChain);
 		} else {
-			myChain = friendlyNeighbors.remove(0);
+			myChain = removeLargest(friendlyNeighbors);
 			myChain.addPoint(p);
 			myChain.addLiberties(emptyNeighbors);
 			setBoardRep(p, myChain);
@@ -980,6 +1139,9 @@ public class AnalysisGoban extends AbstractGoban
 	{
 		Cluster stone = getBoardRep(p);
 		stone.removePoint(this, p);
+		key ^= Zobrist.key(index(p), stone.getColor()) ^ Zobrist.key(index(p), color);
+		addStones(stone.getColor(), -1);
+		addStones(color, 1);
 
 		List<Point> emptyNeighbors = new ArrayList<Point>(4);
 		List<Chain> friendlyNeighbors = new ArrayList<Chain>(4);
@@ -1009,7 +1171,7 @@ public class AnalysisGoban extends AbstractGoban
 			setBoardRep(p, myChain);
 		}
 		else {
-			myChain = friendlyNeighbors.remove(0);
+			myChain = removeLargest(friendlyNeighbors);
 			myChain.addPoint(p);
 			setBoardRep(p, myChain);
 			for (Chain chain : friendlyNeighbors) {
@@ -1042,11 +1204,25 @@ public class AnalysisGoban extends AbstractGoban
 		myChain.addLiberties(emptyNeighbors);
 	}
 
+	/**
+	 * Remove and return the largest chain, so that joining chains moves the
+	 * points of the smaller chains only.
+	 */
+	private static Chain removeLargest(List<Chain> chains)
+	{
+		int largest = 0;
+		for (int i = 1; i < chains.size(); i++) {
+			if (chains.get(i).size() > chains.get(largest).size())
+				largest = i;
+		}
+		return chains.remove(largest);
+	}
+
 	private Collection<Cluster> checkIfPartioned(Cluster cluster, Point p)
 	{
 		Collection<Cluster> newEyes = new ArrayList<Cluster>(4);
 		Set<Point> points = new HashSet<Point>();
-		Queue<Point> queue = new PriorityQueue<Point>();
+		Queue<Point> queue = new ArrayDeque<Point>();
 		Set<Point> neighbors;
 
 		// newEyes.add(cluster);
@@ -1055,14 +1231,18 @@ public class AnalysisGoban extends AbstractGoban
 		do {
 			neighbors = new TreeSet<Point>();
 			points.clear();
-			if (cluster.getPoints().size() > 0)
+			if (cluster.getPoints().size() > 0) {
 				queue.add(cluster.getPoint());
+				points.add(cluster.getPoint());
+			}
 			while (queue.size() > 0) {
 				Point q = queue.remove();
-				points.add(q);
 				for (Point r : q.neighbors(this)) {
-					if (cluster.getPoints().contains(r) && !points.contains(r) && !queue.contains(r))
-						queue.add(r);
+					if (cluster.getPoints().contains(r)) {
+						// points contains all queued points
+						if (points.add(r))
+							queue.add(r);
+					}
 					else {
 						Cluster neighbor = getBoardRep(r);
 						if (neighbor.getColor() != BoardType.EMPTY) {
@@ -1094,6 +1274,7 @@ public class AnalysisGoban extends AbstractGoban
 			}
 			else {
 				cluster.neighbors = neighbors;
+				cluster.neighborsChanged();
 				for (Cluster c : clusters) {
 					if (!neighbors.contains(c.getRep()))
 						c.removeNeighbor(cluster);
@@ -1106,12 +1287,15 @@ public class AnalysisGoban extends AbstractGoban
 
 	private Cluster removeChain(Chain chain)
 	{
+		addAtariStones(chain.getColor(), -chain.atariStones());
+		addStones(chain.getColor(), -chain.size());
 		Eye eye = new Eye(chain.getPoints());
 		for (Cluster cluster : chain.getNeighbors()) {
 			cluster.removeNeighbor(chain);
 		}
 		for (Point p : chain.getPoints()) {
 			removed.add(p);
+			key ^= Zobrist.key(index(p), chain.getColor());
 			setBoardRep(p, eye);
 			for (Point q : p.neighbors(this)) {
 				Cluster cluster = getBoardRep(q);
@@ -1158,6 +1342,11 @@ public class AnalysisGoban extends AbstractGoban
 		boardRep[p.getX() * boardSize + p.getY()] = rep;
 	}
 
+	private final int index(Point p)
+	{
+		return p.getX() * boardSize + p.getY();
+	}
+
 	@Override
 	public void setBoardSize(int size)
 	{
@@ -1205,6 +1394,41 @@ public class AnalysisGoban extends AbstractGoban
 		return _hash;
 	}
 
+	/**
+	 * Get the 64 bit Zobrist key of the position. The key is updated by
+	 * {@link #move}, {@link #putStone} and when chains are captured, so this
+	 * is O(1).
+	 *
+	 * @see Zobrist
+	 */
+	public long zobristKey()
+	{
+		return key;
+	}
+
+	/**
+	 * Two AnalysisGobans are considered equal if their Zobrist keys are
+	 * equal.
+	 */
+	@Override
+	public boolean equals(Object o)
+	{
+		if (o == this)
+			return true;
+		if (o instanceof AnalysisGoban) {
+			AnalysisGoban goban = (AnalysisGoban) o;
+			return goban.boardSize == boardSize && goban.key == key;
+		}
+		else
+			return super.equals(o);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (int) (key ^ (key >>> 32));
+	}
+
 	public String deepToString()
 	{
 		return "AnalysisGoban [clusters=" + clusters + ", groups=" + groups
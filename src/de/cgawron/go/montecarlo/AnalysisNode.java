@@ -1,9 +1,12 @@
 package de.cgawron.go.montecarlo;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.logging.Logger;
 
 import de.cgawron.go.Goban;
@@ -15,7 +18,9 @@ import de.cgawron.go.montecarlo.AnalysisGoban.Group;
 
 /**
  * A node in the analysis tree. It contains the move, the @code{AnalysisGoban}
- * and data needed for the UCT algorithm.
+ * and data needed for the UCT algorithm. Nodes created by
+ * {@link #createChild(int, LightGoban)} don't have a goban; their position is
+ * reconstructed by playing the moves from the root on a {@link LightGoban}.
  * 
  * @author Christian Gawron
  * 
@@ -46,7 +51,28 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 
 	static Logger logger = Logger.getLogger(AnalysisNode.class.getName());
 
-	private int visits = 0;
+	/*
+	 * The statistics are updated without locking by several simulator
+	 * threads. The sums are stored as the bits of a double and updated using
+	 * compare and set.
+	 */
+	private static final AtomicIntegerFieldUpdater<AnalysisNode> VISITS =
+	                AtomicIntegerFieldUpdater.newUpdater(AnalysisNode.class, "visits");
+	private static final AtomicIntegerFieldUpdater<AnalysisNode> VIRTUAL_LOSS =
+	                AtomicIntegerFieldUpdater.newUpdater(AnalysisNode.class, "virtualLoss");
+	private static final AtomicLongFieldUpdater<AnalysisNode> VALUE =
+	                AtomicLongFieldUpdater.newUpdater(AnalysisNode.class, "value");
+	private static final AtomicLongFieldUpdater<AnalysisNode> SCORE =
+	                AtomicLongFieldUpdater.newUpdater(AnalysisNode.class, "score");
+	private static final AtomicLongFieldUpdater<AnalysisNode> SCORE2 =
+	                AtomicLongFieldUpdater.newUpdater(AnalysisNode.class, "score2");
+	private static final AtomicIntegerFieldUpdater<AnalysisNode> RAVE_VISITS =
+	                AtomicIntegerFieldUpdater.newUpdater(AnalysisNode.class, "raveVisits");
+	private static final AtomicLongFieldUpdater<AnalysisNode> RAVE_VALUE =
+	                AtomicLongFieldUpdater.newUpdater(AnalysisNode.class, "raveValue");
+
+	private volatile int visits = 0;
+	private volatile int virtualLoss = 0;
 	int moveNo;
 	int whiteAtari = -1;
 	int blackAtari = -1;
@@ -54,26 +80,66 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 
 	double depth;
 	double komi;
-	private double score;
-	private double score2;
+	private volatile long score;
+	private volatile long score2;
 	double suitability;
-	double value;
+	private volatile long value;
+
+	/*
+	 * The all-moves-as-first statistics: simulations through the parent in
+	 * which the move of this node was played later on by the same player.
+	 */
+	private volatile int raveVisits = 0;
+	private volatile long raveValue;
 
 	AnalysisNode parent;
 	AnalysisGoban goban;
 
 	private Point move;
 
-	Set<AnalysisNode> children;
+	/** The children of this node. The set is not modified once published. */
+	volatile Set<AnalysisNode> children;
+
+	/*
+	 * The moves leading to children shared with another node by the
+	 * transposition table, where they differ from the move of the child.
+	 * Like the children, the map is replaced instead of modified, and it is
+	 * published before the children it refers to.
+	 */
+	private volatile Map<AnalysisNode, Integer> childMoves;
+
+	/*
+	 * The moves which may become children, sorted by decreasing prior; the
+	 * pass is always a child. The candidates before nextCandidate have been turned
+	 * into children (or dropped); both are guarded by the node's lock.
+	 */
+	int[] candidates;
+	int nextCandidate;
 	Map<Point, Miai> miaiMap;
 
 	BoardType movingColor;
 
+	/**
+	 * The 64 bit Zobrist key of the position and the side to move.
+	 */
+	private long key;
+
+	/**
+	 * The point which may not be played because of a simple ko, or
+	 * {@link LightGoban#NONE}.
+	 */
+	int ko = LightGoban.NONE;
+
 	public AnalysisNode(AnalysisNode analysisNode)
+	{
+		this(analysisNode, analysisNode.goban.clone());
+	}
+
+	private AnalysisNode(AnalysisNode analysisNode, AnalysisGoban goban)
 	{
 		this.parent = analysisNode;
 		this.boardSize = analysisNode.boardSize;
-		this.goban = analysisNode.goban.clone();
+		this.goban = goban;
 		this.moveNo = analysisNode.moveNo;
 		this.komi = analysisNode.komi;
 		this.miaiMap = analysisNode.miaiMap;
@@ -93,6 +159,7 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		this.komi = komi;
 		this.miaiMap = new GobanMap<Miai>(this.boardSize);
 		this.moveNo = 0;
+		this.key = this.goban.zobristKey() ^ Zobrist.toMove(movingColor);
 
 		initializeMiai();
 	}
@@ -188,6 +255,7 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		child.moveNo = moveNo + 1;
 		child.parent = this;
 		child.movingColor = movingColor.opposite();
+		child.key = key ^ Zobrist.WHITE_TO_MOVE;
 		return child;
 	}
 
@@ -199,6 +267,8 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 			child.setMove(p);
 			try {
 				child.goban.move(p, movingColor);
+				child.key = child.goban.zobristKey() ^ Zobrist.toMove(child.movingColor);
+				child.ko = koPoint(child.goban, p, movingColor);
 				// logger.info("createChild: " + p + "\n[" + goban + "]\n[" +
 				// child.goban + "]");
 				updateMiai();
@@ -210,6 +280,136 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		}
 	}
 
+	/**
+	 * Get the ko point after <code>color</code> played at <code>p</code>,
+	 * like {@link LightGoban#play}: the move captured a single stone and the
+	 * stone played is alone and in atari.
+	 * 
+	 * @param after
+	 *            the goban of the child, i.e. after the move.
+	 */
+	private int koPoint(AnalysisGoban after, Point p, BoardType color)
+	{
+		BoardType enemy = color.opposite();
+		if (goban.getStoneCount(enemy) - after.getStoneCount(enemy) != 1)
+			return LightGoban.NONE;
+		int ko = LightGoban.NONE;
+		int[][] offsets = { { 1, 0 }, { 0, 1 }, { -1, 0 }, { 0, -1 } };
+		for (int[] offset : offsets) {
+			int x = p.getX() + offset[0];
+			int y = p.getY() + offset[1];
+			if (x < 0 || x >= boardSize || y < 0 || y >= boardSize)
+				continue;
+			BoardType stone = after.getStone(x, y);
+			if (stone == BoardType.EMPTY && goban.getStone(x, y) == enemy)
+				ko = x * boardSize + y;
+			else if (stone != enemy)
+				return LightGoban.NONE;
+		}
+		return ko;
+	}
+
+	/**
+	 * Create a child without a goban of its own. Its suitability is
+	 * calculated by {@link LightGoban#suitability}.
+	 * 
+	 * @param p
+	 *            the index of the move or {@link LightGoban#NONE} to pass.
+	 * @param board
+	 *            holds the position of this node; it is unchanged on return.
+	 */
+	AnalysisNode createChild(int p, LightGoban board)
+	{
+		AnalysisNode child = new AnalysisNode(this, null);
+		child.moveNo = moveNo + 1;
+		child.movingColor = movingColor.opposite();
+		if (p == LightGoban.NONE) {
+			child.key = key ^ Zobrist.WHITE_TO_MOVE;
+			return child;
+		}
+
+		byte color = LightGoban.toByte(movingColor);
+		child.setMove(new Point(p / boardSize, p % boardSize));
+		child.suitability = board.suitability(p, color);
+		if (child.suitability > 0) {
+			board.make(p, color);
+			child.key = board.zobristKey() ^ Zobrist.toMove(child.movingColor);
+			child.ko = board.ko;
+			board.unmake();
+		}
+		return child;
+	}
+
+	/**
+	 * Collect the candidate moves of this node, ordered by their
+	 * {@link #prior}. With a board, the prior is based on
+	 * {@link LightGoban#suitability} and illegal moves and eye fillings are
+	 * left out. Without a board, all empty points are candidates; they are
+	 * checked when the child is created. Moves with the same prior are
+	 * ordered by a hash of the position, so equal moves are not always tried
+	 * in board order. The pass is not a candidate, it becomes a child when
+	 * the node is expanded.
+	 * 
+	 * @param board
+	 *            holds the position of this node, or null to use the goban.
+	 */
+	void createCandidates(LightGoban board)
+	{
+		int numPoints = boardSize * boardSize;
+		long[] order = Playout.get().getOrder(numPoints);
+		int n = 0;
+		byte color = LightGoban.toByte(movingColor);
+		int lastMove = getMoveIndex();
+		for (int p = 0; p < numPoints; p++) {
+			double suitability;
+			if (board != null)
+				suitability = board.suitability(p, color);
+			else
+				suitability = goban.getStone(p / boardSize, p % boardSize) == BoardType.EMPTY ? 1 : 0;
+			if (suitability <= 0)
+				continue;
+			float prior = prior(suitability, p, lastMove, boardSize);
+			long tie = (key ^ Zobrist.key(p, BoardType.BLACK)) >>> 48;
+			order[n++] = (~Float.floatToIntBits(prior) & 0xffffffffL) << 32 | tie << 16 | p;
+		}
+		Arrays.sort(order, 0, n);
+
+		candidates = new int[n];
+		for (int i = 0; i < n; i++)
+			candidates[i] = (int) (order[i] & 0xffff);
+		nextCandidate = 0;
+	}
+
+	/**
+	 * Get the prior of the move <code>p</code>, which decides the order in
+	 * which candidates become children. Most moves have the same
+	 * suitability, so moves near the last move are preferred and moves on
+	 * the first line are discouraged.
+	 * 
+	 * @param lastMove
+	 *            the point of the last move, or {@link LightGoban#NONE}.
+	 */
+	static float prior(double suitability, int p, int lastMove, int boardSize)
+	{
+		int x = p / boardSize;
+		int y = p % boardSize;
+		double prior = suitability;
+		if (lastMove != LightGoban.NONE
+		    && Math.abs(x - lastMove / boardSize) + Math.abs(y - lastMove % boardSize) <= 2)
+			prior *= 2;
+		if (x == 0 || y == 0 || x == boardSize - 1 || y == boardSize - 1)
+			prior /= 2;
+		return (float) prior;
+	}
+
+	/**
+	 * Check if there are candidate moves which have not become children yet.
+	 */
+	boolean hasCandidates()
+	{
+		return candidates != null && nextCandidate < candidates.length;
+	}
+
 	public AnalysisNode createPassNode()
 	{
 		// logger.info("creating pass move");
@@ -229,34 +429,73 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		if (getClass() != obj.getClass())
 			return false;
 		AnalysisNode other = (AnalysisNode) obj;
-		if (!goban.equals(other.goban))
-			return false;
-		return true;
+		return key == other.key;
 	}
 
-	public double evaluateByMC(AnalysisNode[] sequence, int n, double[][] territory)
+	public double evaluateByMC(AnalysisNode[] sequence, int n, Ownership.ThreadOwnership ownership)
 	{
+		return evaluateByMC(sequence, n, isPass(), ownership);
+	}
+
+	/**
+	 * Play a playout from this node.
+	 * 
+	 * @param pass
+	 *            true if this node was reached by a pass. For a node shared
+	 *            by the transposition table this may differ from
+	 *            {@link #isPass()}.
+	 */
+	double evaluateByMC(AnalysisNode[] sequence, int n, boolean pass, Ownership.ThreadOwnership ownership)
+	{
+		if (Evaluator.parameters.lightPlayout)
+			return Playout.get().run(getGoban(), movingColor, pass ? 1 : 0, moveNo, komi, ownership);
+
 		AnalysisNode currentNode = this;
+		boolean lastPass = pass;
 
 		int i = n;
 		while (true) {
-			sequence[++i] = currentNode = currentNode.selectRandomMCMove();
-			if (currentNode.isPass() && currentNode.parent.isPass()) {
+			currentNode = currentNode.selectRandomMCMove(sequence, i);
+			sequence[++i] = currentNode;
+			if (currentNode.isPass() && lastPass) {
 				break;
 			}
+			lastPass = currentNode.isPass();
 
 			if (currentNode.moveNo >= Evaluator.parameters.maxMoves) {
 				throw new RuntimeException("no result");
 			}
 		}
 		// logger.info("MC: calling evaluateByScoring");
-		return currentNode.evaluateByScoring(territory);
+		return currentNode.evaluateByScoring(ownership);
+	}
+
+	/**
+	 * Play a playout like {@link #evaluateByMC(AnalysisNode[], int,
+	 * Ownership.ThreadOwnership)} from a node without a goban of its own. The
+	 * playout starts at a copy of this node with a goban holding the
+	 * position of <code>board</code>.
+	 * 
+	 * @param board
+	 *            holds the position of this node.
+	 * @param pass
+	 *            true if this node was reached by a pass.
+	 */
+	double evaluateByMC(LightGoban board, boolean pass, AnalysisNode[] sequence, int n,
+	                    Ownership.ThreadOwnership ownership)
+	{
+		AnalysisNode start = new AnalysisNode(board, movingColor, komi);
+		start.move = move;
+		start.moveNo = moveNo;
+		return start.evaluateByMC(sequence, n, pass, ownership);
 	}
 
-	public double evaluateByScoring(double[][] territory)
+	public double evaluateByScoring(Ownership.ThreadOwnership ownership)
 	{
-		double chineseScore = Evaluator.chineseScore(this, territory);
+		double chineseScore = Evaluator.chineseScore(this, ownership != null ? ownership.owner : null);
 		chineseScore -= komi;
+		if (ownership != null)
+			ownership.record(chineseScore);
 
 		return chineseScore;
 	}
@@ -284,6 +523,50 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		}
 	}
 
+	/**
+	 * Get the child reached by <code>move</code> as the root of the next
+	 * search. The child is detached from this node, so the rest of the tree
+	 * can be garbage collected, and gets a goban if it was created without
+	 * one. The child and its children get the moves by which they are
+	 * reached from the new root, as they may have been created by another
+	 * node.
+	 * 
+	 * @param move
+	 *            the move played, null for a pass.
+	 * @param goban
+	 *            the position after the move.
+	 * @return the child, or null if this node has no child for the move or
+	 *         its position differs from <code>goban</code>.
+	 */
+	public AnalysisNode advance(Point move, AnalysisGoban goban)
+	{
+		Set<AnalysisNode> children = this.children;
+		if (children == null)
+			return null;
+		int p = move == null ? LightGoban.NONE : move.getX() * boardSize + move.getY();
+		for (AnalysisNode child : children) {
+			if (getChildMoveIndex(child) != p)
+				continue;
+			if (child.key != (goban.zobristKey() ^ Zobrist.toMove(child.movingColor)))
+				return null;
+			child.parent = null;
+			child.move = move;
+			if (child.goban == null)
+				child.goban = new AnalysisGoban(goban);
+			Set<AnalysisNode> grandChildren = child.children;
+			if (grandChildren != null) {
+				for (AnalysisNode grandChild : grandChildren) {
+					int q = child.getChildMoveIndex(grandChild);
+					grandChild.move = q == LightGoban.NONE ? null : new Point(q / boardSize, q % boardSize);
+					grandChild.parent = child;
+				}
+				child.childMoves = null;
+			}
+			return child;
+		}
+		return null;
+	}
+
 	public AnalysisNode getBestChild()
 	{
 		double max = -1;
@@ -292,8 +575,9 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		{
 			// logger.info("move: " + node.move + ", value=" + node.value +
 			// ", visits=" + node.visits);
-			if (node.value > max) {
-				max = node.value;
+			double value = node.getValueSum();
+			if (value > max) {
+				max = value;
 				best = node;
 			}
 		}
@@ -312,29 +596,33 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 
 	public final double getScore()
 	{
-		return score / getVisits();
+		return Double.longBitsToDouble(score) / getVisits();
 	}
 
-	synchronized public final double getValue()
+	public final double getValue()
 	{
-		return value / getVisits();
+		return getValueSum() / getVisits();
+	}
+
+	/**
+	 * Get the sum of the values of all simulations through this node.
+	 */
+	public final double getValueSum()
+	{
+		return Double.longBitsToDouble(value);
 	}
 
 	public final double getVariance()
 	{
+		double score = Double.longBitsToDouble(this.score);
+		double score2 = Double.longBitsToDouble(this.score2);
 		return Math.sqrt((score2 - score * score / getVisits()) / (getVisits() - 1));
 	}
 
 	@Override
 	public int hashCode()
 	{
-		if (getMove() != null)
-			return goban.hashCode();
-		else if (parent != null) {
-			return 31 * parent.hashCode() + 1;
-		}
-		else
-			return 0;
+		return (int) (key ^ (key >>> 32));
 	}
 
 	private void initializeMiai()
@@ -357,9 +645,18 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 	 */
 	protected AnalysisNode selectRandomMCMove()
 	{
-		double totalSuitability = 0;
-		Map<AnalysisNode, Double> map = new TreeMap<AnalysisNode, Double>();
+		return selectRandomMCMove(new AnalysisNode[] { this }, 0);
+	}
+
+	/**
+	 * Like {@link #selectRandomMCMove()}, but moves repeating a position of
+	 * <code>sequence[0..n]</code>, which ends with this node, are illegal.
+	 */
+	AnalysisNode selectRandomMCMove(AnalysisNode[] sequence, int n)
+	{
 		int size = boardSize;
+		AnalysisNode[] nodes = new AnalysisNode[size * size];
+		WeightTree weights = new WeightTree(size * size);
 		for (int i = 0; i < size; i++) {
 			for (int j = 0; j < size; j++) {
 				if (goban.getStone(i, j) != BoardType.EMPTY)
@@ -368,23 +665,19 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 				AnalysisNode node = createChild(p);
 				// numNodes++;
 				if (node.suitability > 0) {
-					totalSuitability += node.suitability;
-					map.put(node, node.suitability);
+					nodes[i * size + j] = node;
+					weights.set(i * size + j, WeightTree.weight(node.suitability));
 				}
 			}
 		}
 
-		double random = Math.random();
-		Set<Map.Entry<AnalysisNode, Double>> entries = map.entrySet();
-		// logger.info("selectRandomMove: " + parent.movingColor + " " +
-		// totalSuitability + " " + random);
-		for (Map.Entry<AnalysisNode, Double> entry : entries) {
-			random -= entry.getValue() / totalSuitability;
-			if (random < 0) {
-				AnalysisNode node = entry.getKey();
-				if (!node.isIllegalKo())
-					return node;
-			}
+		// An illegal ko capture is removed and another move is drawn
+		long total;
+		while ((total = weights.total()) > 0) {
+			int i = weights.sample(Math.min((long) (FastRandom.get().nextDouble() * total), total - 1));
+			if (!nodes[i].isRepetition(sequence, n))
+				return nodes[i];
+			weights.set(i, 0);
 		}
 		// logger.info("no suitable move - passing");
 		AnalysisNode node = createPassNode();
@@ -394,51 +687,93 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		return node;
 	}
 
+	/**
+	 * Select a child using UCB1. This method does not lock, the statistics of
+	 * the children may change concurrently. Children currently being visited
+	 * by other threads are penalized by
+	 * {@link Evaluator.EvaluatorParameters#virtualLoss} lost simulations per
+	 * thread.
+	 * 
+	 * If {@link Evaluator.EvaluatorParameters#raveEquivalence} is positive,
+	 * the mean value of a child is blended with its RAVE value using the
+	 * weight <code>beta = sqrt(k / (3 * visits + k))</code>, so the RAVE
+	 * value dominates for children with few visits. A child with neither
+	 * visits nor RAVE statistics is valued at
+	 * {@link Evaluator.EvaluatorParameters#firstPlayUrgency}, so children
+	 * with a good RAVE value are tried first. Ties are broken by the
+	 * suitability.
+	 * 
+	 * @return the selected child or null if all children are illegal ko
+	 *         captures.
+	 */
 	protected AnalysisNode selectRandomUCTMove()
+	{
+		return selectRandomUCTMove(new AnalysisNode[] { this }, 0);
+	}
+
+	/**
+	 * Like {@link #selectRandomUCTMove()}, but ko captures are checked against
+	 * the path <code>sequence[0..n]</code> of the current descent, which ends
+	 * with this node. A node shared by the transposition table may have been
+	 * created below another path, so its parent chain can't be used.
+	 */
+	AnalysisNode selectRandomUCTMove(AnalysisNode[] sequence, int n)
 	{
 		int _visits = 0;
 		AnalysisNode best = null;
 		double max = -1;
+		int virtualLossWeight = Evaluator.parameters.virtualLoss;
+		int raveEquivalence = Evaluator.parameters.raveEquivalence;
+		double firstPlayUrgency = Evaluator.parameters.firstPlayUrgency;
 
-		synchronized (this) {
-			for (AnalysisNode child : children)
-			{
-				_visits += child.getVisits();
+		for (AnalysisNode child : children)
+		{
+			_visits += child.getVisits() + virtualLossWeight * child.virtualLoss;
+		}
+		for (AnalysisNode child : children)
+		{
+			double value;
+			int visits = child.getVisits() + virtualLossWeight * child.virtualLoss;
+			int raveVisits = raveEquivalence > 0 ? child.raveVisits : 0;
+			if (visits == 0 && raveVisits == 0) {
+				value = 1 + firstPlayUrgency + 0.001 * child.suitability + Math.sqrt(2 * Math.log(Math.max(_visits, 1)));
+			}
+			else if (raveVisits == 0) {
+				value = 1 + child.getValueSum() / visits + Math.sqrt(2 * Math.log(_visits) / visits);
+			}
+			else {
+				double beta = Math.sqrt(raveEquivalence / (3.0 * visits + raveEquivalence));
+				double mean = visits > 0 ? child.getValueSum() / visits : 0;
+				value = 1 + (1 - beta) * mean + beta * child.getRaveValue()
+				        + Math.sqrt(2 * Math.log(Math.max(_visits, 1)) / Math.max(visits, 1));
 			}
-			for (AnalysisNode child : children)
-			{
-				double value;
-				if (child.getVisits() == 0) {
-					value = 1000 + child.suitability;
-				}
-				else {
-					value = 1 + child.getValue() + Math.sqrt(2 * Math.log(_visits) / child.getVisits());
-				}
 
-				// logger.info("child=" + child + ", value=" + value);
-				if (value > max) {
-					if (!child.isIllegalKo() || (child.getMove() == null)) {
-						best = child;
-						max = value;
-					}
+			// logger.info("child=" + child + ", value=" + value);
+			if (value > max) {
+				if (getChildMoveIndex(child) == LightGoban.NONE || !child.isRepetition(sequence, n)) {
+					best = child;
+					max = value;
 				}
 			}
 		}
 		// logger.info("final max=" + max + ", best=" + best);
-		if (best == null)
-			throw new NullPointerException();
-		assert best != null;
 		return best;
 	}
 
+	/**
+	 * Check if the position of this node repeats the position of one of its
+	 * ancestors. This follows the parent chain, so it is only meaningful for
+	 * nodes which are not shared, see {@link #isRepetition}.
+	 */
 	boolean isIllegalKo()
 	{
 		boolean illegalKo = false;
 		AnalysisNode node = this;
+		long position = getPositionKey();
 
 		while (node.parent != null) {
 			node = node.parent;
-			if (node.goban.equals(this.goban)) {
+			if (node.getPositionKey() == position) {
 				illegalKo = true;
 				break;
 			}
@@ -446,14 +781,25 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		return illegalKo;
 	}
 
-	/*
-	 * private boolean isIllegalKo(AnalysisNode child, AnalysisNode[] sequence,
-	 * int n) { boolean illegalKo = false; for (int i=n-1; i>=0; i--) { if
-	 * (sequence[i].goban.equals(child.goban)) { // FIXME illegalKo = true;
-	 * break; } } AnalysisNode node = sequence[0]; while (node.parent != null) {
-	 * node = node.parent; if (node.goban.equals(child.goban)) { // FIXME!
-	 * illegalKo = true; break; } } return illegalKo; }
+	/**
+	 * Check if the position of this node repeats a position of
+	 * <code>sequence[0..n]</code> or of the ancestors of
+	 * <code>sequence[0]</code>, i.e. if the move to this node is an illegal
+	 * ko capture.
 	 */
+	boolean isRepetition(AnalysisNode[] sequence, int n)
+	{
+		long position = getPositionKey();
+		for (int i = n; i >= 0; i--) {
+			if (sequence[i].getPositionKey() == position)
+				return true;
+		}
+		for (AnalysisNode node = sequence[0].parent; node != null; node = node.parent) {
+			if (node.getPositionKey() == position)
+				return true;
+		}
+		return false;
+	}
 
 	@Override
 	public String toString()
@@ -466,6 +812,7 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		                + ", variance=" + getVariance()
 		                + ", movingColor=" + movingColor
 		                + "\nvisits=" + getVisits()
+		                + ", raveVisits=" + raveVisits
 		                + ", blackAtari=" + blackAtari + ", whiteAatari=" + whiteAtari
 		                + ", suitability=" + suitability + "\n" + goban + "]";
 	}
@@ -475,19 +822,92 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		// TODO Look for miai pairs and add them.
 	}
 
-	synchronized public void update(double value, double score)
+	public void update(double value, double score)
+	{
+		add(VALUE, value);
+		add(SCORE, score);
+		add(SCORE2, score * score);
+		VISITS.incrementAndGet(this);
+	}
+
+	private void add(AtomicLongFieldUpdater<AnalysisNode> updater, double delta)
+	{
+		long current;
+		long next;
+		do {
+			current = updater.get(this);
+			next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+		} while (!updater.compareAndSet(this, current, next));
+	}
+
+	/**
+	 * Add the result of a simulation in which the move of this node was
+	 * played by the same player after the parent was reached.
+	 */
+	void updateRave(double value)
 	{
-		this.value += value;
-		this.score += score;
-		this.score2 += score * score;
-		this.visits++;
+		add(RAVE_VALUE, value);
+		RAVE_VISITS.incrementAndGet(this);
 	}
 
-	synchronized public final int getVisits()
+	/**
+	 * Get the mean value of the all-moves-as-first simulations.
+	 */
+	public final double getRaveValue()
+	{
+		return Double.longBitsToDouble(raveValue) / raveVisits;
+	}
+
+	public final int getRaveVisits()
+	{
+		return raveVisits;
+	}
+
+	/**
+	 * Set the statistics, e.g. from a search in a {@link TreeArena}. The sum
+	 * of the squared scores is not known and set to 0.
+	 */
+	void setStatistics(int visits, double valueSum, double scoreSum)
+	{
+		VISITS.set(this, visits);
+		VALUE.set(this, Double.doubleToRawLongBits(valueSum));
+		SCORE.set(this, Double.doubleToRawLongBits(scoreSum));
+		SCORE2.set(this, 0);
+	}
+
+	/**
+	 * Initialize the value sum, e.g. to give the pass move a small prior.
+	 */
+	void setValueSum(double value)
+	{
+		VALUE.set(this, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Mark this node as being visited by a simulation which has not been
+	 * backed up yet.
+	 */
+	void addVirtualLoss()
+	{
+		VIRTUAL_LOSS.incrementAndGet(this);
+	}
+
+	void removeVirtualLoss()
+	{
+		VIRTUAL_LOSS.decrementAndGet(this);
+	}
+
+	public final int getVisits()
 	{
 		return visits;
 	}
 
+	/**
+	 * Get the move leading to this node from the node which created it. A
+	 * node shared by the transposition table may be reached from other nodes
+	 * by other moves, see {@link #getChildMoveIndex}; the children of a root
+	 * always have their own move.
+	 */
 	public Point getMove()
 	{
 		return move;
@@ -498,8 +918,74 @@ public class AnalysisNode implements Comparable<AnalysisNode>
 		this.move = move;
 	}
 
+	/**
+	 * Get the key of this node, i.e. the 64 bit Zobrist key of the position
+	 * combined with the side to move and the ko point. Nodes with the same
+	 * stones but a different ko point have different legal moves, so they
+	 * must not be shared.
+	 */
+	public long getKey()
+	{
+		return key ^ Zobrist.ko(ko);
+	}
+
+	/**
+	 * Get the Zobrist key of the position without the side to move.
+	 */
+	long getPositionKey()
+	{
+		return key ^ Zobrist.toMove(movingColor);
+	}
+
+	/**
+	 * Get the index <code>x * boardSize + y</code> of the move, or
+	 * {@link LightGoban#NONE} for a pass.
+	 */
+	int getMoveIndex()
+	{
+		return move == null ? LightGoban.NONE : move.getX() * boardSize + move.getY();
+	}
+
+	/**
+	 * Get the index of the move leading from this node to <code>child</code>,
+	 * or {@link LightGoban#NONE} for a pass.
+	 */
+	int getChildMoveIndex(AnalysisNode child)
+	{
+		Map<AnalysisNode, Integer> moves = childMoves;
+		if (moves != null) {
+			Integer p = moves.get(child);
+			if (p != null)
+				return p;
+		}
+		return child.getMoveIndex();
+	}
+
+	/**
+	 * Record that <code>child</code>, a node found in the transposition
+	 * table, is reached from this node by the move <code>p</code>. The caller
+	 * has to hold the lock of this node and publish the child afterwards.
+	 */
+	void setChildMove(AnalysisNode child, int p)
+	{
+		if (p == child.getMoveIndex())
+			return;
+		Map<AnalysisNode, Integer> moves = childMoves == null ? new HashMap<AnalysisNode, Integer>()
+		                : new HashMap<AnalysisNode, Integer>(childMoves);
+		moves.put(child, p);
+		childMoves = moves;
+	}
+
 	public AnalysisGoban getGoban()
 	{
 		return goban;
 	}
+
+	/**
+	 * Get the color of the player to move in this node.
+	 */
+	public BoardType getMovingColor()
+	{
+		return movingColor;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.util.Arrays;
+
+import de.cgawron.go.AbstractGoban;
+import de.cgawron.go.Goban;
+import de.cgawron.go.Point;
+import de.cgawron.go.Symmetry;
+
+/**
+ * A goban backed by bitboards for black, white and empty points. Chains,
+ * liberties and captures are computed by bit-parallel flood fill instead of
+ * being maintained incrementally as in {@link LightGoban}.
+ *
+ * Each row of the board is stored with one additional (always empty) padding
+ * bit, i.e. the point <code>(x, y)</code> is bit
+ * <code>x * (boardSize + 1) + y</code>. This way shifting a bitboard by one
+ * or by a row never wraps a stone to the other edge. Boards up to 19x19 are
+ * supported. The public methods use the same point indices
+ * <code>x * boardSize + y</code> as {@link LightGoban}.
+ *
+ * @author Christian Gawron
+ */
+public class BitGoban extends AbstractGoban implements PlayoutBoard
+{
+	private static final byte EMPTY = LightGoban.EMPTY;
+	private static final byte BLACK = LightGoban.BLACK;
+	private static final byte WHITE = LightGoban.WHITE;
+	private static final int NONE = LightGoban.NONE;
+
+	private int numPoints;
+	private int stride;
+	private int numWords;
+
+	/** The bits belonging to the board. */
+	private long[] onBoard;
+	private long[] black;
+	private long[] white;
+	private long[] empty;
+
+	/** Maps point indices to bit indices and vice versa. */
+	private int[] toBit;
+	private int[] toPoint;
+	private int[] neighbors;
+	private int[] diagonals;
+
+	/** The point which may not be played because of a simple ko. */
+	private int ko = NONE;
+
+	private long[] chain;
+	private long[] seen;
+	private long[] captured;
+	private long[] tmp;
+	private long[] fill;
+
+	public BitGoban()
+	{
+	}
+
+	public BitGoban(int boardSize)
+	{
+		setBoardSize(boardSize);
+	}
+
+	public BitGoban(Goban goban)
+	{
+		copy(goban);
+	}
+
+	@Override
+	public void setBoardSize(int size)
+	{
+		if (size > Zobrist.MAX_SIZE)
+			throw new IllegalArgumentException("board size " + size + " not supported");
+		if (size != boardSize || black == null) {
+			boardSize = size;
+			numPoints = size * size;
+			stride = size + 1;
+			numWords = (size * stride + 63) / 64;
+			onBoard = new long[numWords];
+			black = new long[numWords];
+			white = new long[numWords];
+			empty = new long[numWords];
+			chain = new long[numWords];
+			seen = new long[numWords];
+			captured = new long[numWords];
+			tmp = new long[numWords];
+			fill = new long[numWords];
+			toBit = new int[numPoints];
+			toPoint = new int[numWords * 64];
+			Arrays.fill(toPoint, NONE);
+			for (int p = 0; p < numPoints; p++) {
+				int b = p + p / size;
+				toBit[p] = b;
+				toPoint[b] = p;
+				set(onBoard, b);
+			}
+			neighbors = LightGoban.neighborTable(size);
+			diagonals = LightGoban.diagonalTable(size);
+		}
+		clear();
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill(black, 0);
+		Arrays.fill(white, 0);
+		System.arraycopy(onBoard, 0, empty, 0, numWords);
+		ko = NONE;
+		lastMove = null;
+		blackCaptured = 0;
+		whiteCaptured = 0;
+		removed.clear();
+	}
+
+	@Override
+	public void copy(Goban goban)
+	{
+		if (goban instanceof BitGoban) {
+			BitGoban other = (BitGoban) goban;
+			if (other.boardSize != boardSize || black == null)
+				setBoardSize(other.boardSize);
+			System.arraycopy(other.black, 0, black, 0, numWords);
+			System.arraycopy(other.white, 0, white, 0, numWords);
+			System.arraycopy(other.empty, 0, empty, 0, numWords);
+			ko = other.ko;
+			lastMove = other.lastMove;
+			blackCaptured = other.blackCaptured;
+			whiteCaptured = other.whiteCaptured;
+		}
+		else {
+			setBoardSize(goban.getBoardSize());
+			for (int x = 0; x < boardSize; x++) {
+				for (int y = 0; y < boardSize; y++) {
+					byte c = LightGoban.toByte(goban.getStone(x, y));
+					if (c != EMPTY)
+						addStone(toBit[x * boardSize + y], c);
+				}
+			}
+			lastMove = goban.getLastMove();
+			blackCaptured = goban.getBlackCaptured();
+			whiteCaptured = goban.getWhiteCaptured();
+		}
+	}
+
+	@Override
+	public BitGoban clone()
+	{
+		BitGoban goban = new BitGoban();
+		goban.copy(this);
+		return goban;
+	}
+
+	@Override
+	public Goban newInstance()
+	{
+		return new BitGoban(boardSize);
+	}
+
+	@Override
+	public BoardType getStone(int x, int y)
+	{
+		return LightGoban.toBoardType(color(x * boardSize + y));
+	}
+
+	@Override
+	public void putStone(int x, int y, BoardType c)
+	{
+		int p = x * boardSize + y;
+		if (color(p) != EMPTY)
+			throw new IllegalArgumentException("putStone on occupied point " + new Point(x, y));
+		addStone(toBit[p], LightGoban.toByte(c));
+	}
+
+	@Override
+	public boolean move(int x, int y, BoardType c)
+	{
+		int p = x * boardSize + y;
+		byte stone = LightGoban.toByte(c);
+		if (!isLegal(p, stone))
+			return false;
+		play(p, stone);
+		lastMove = new Point(x, y);
+		return true;
+	}
+
+	/**
+	 * Get the color of the point with index <code>p</code>.
+	 */
+	final byte color(int p)
+	{
+		int b = toBit[p];
+		if (get(black, b))
+			return BLACK;
+		else if (get(white, b))
+			return WHITE;
+		else
+			return EMPTY;
+	}
+
+	private long[] stones(byte color)
+	{
+		return color == BLACK ? black : white;
+	}
+
+	/**
+	 * Check if <code>color</code> may play at <code>p</code>, i.e. the point
+	 * is empty, not an illegal ko recapture and the move is not suicide.
+	 */
+	final boolean isLegal(int p, byte color)
+	{
+		if (p == ko || !get(empty, toBit[p]))
+			return false;
+
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q == NONE)
+				continue;
+			byte c = color(q);
+			if (c == EMPTY)
+				return true;
+			boolean atari = liberties(toBit[q], c, 2) == 1;
+			if (c != color && atari)
+				return true;
+			if (c == color && !atari)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if <code>p</code> is an eye of <code>color</code>.
+	 *
+	 * @see LightGoban#isEye
+	 */
+	final boolean isEye(int p, byte color)
+	{
+		int onBoard = 0;
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q == NONE)
+				continue;
+			if (color(q) != color)
+				return false;
+			onBoard++;
+		}
+
+		byte enemy = LightGoban.opposite(color);
+		int enemyDiagonals = 0;
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = diagonals[i];
+			if (q != NONE && color(q) == enemy)
+				enemyDiagonals++;
+		}
+		return enemyDiagonals < (onBoard == 4 ? 2 : 1);
+	}
+
+	/**
+	 * Count the liberties of the chain containing bit <code>b</code>, but
+	 * stop counting at <code>max</code>. The chain is left in
+	 * {@link #chain}.
+	 */
+	private int liberties(int b, byte color, int max)
+	{
+		flood(b, stones(color), chain);
+		dilate(chain, tmp);
+		int n = 0;
+		for (int i = 0; i < numWords && n < max; i++)
+			n += Long.bitCount(tmp[i] & empty[i]);
+		return Math.min(n, max);
+	}
+
+	@Override
+	public int emptyPoints(int[] points)
+	{
+		int n = 0;
+		for (int i = 0; i < numWords; i++) {
+			long w = empty[i];
+			while (w != 0) {
+				points[n++] = toPoint[64 * i + Long.numberOfTrailingZeros(w)];
+				w &= w - 1;
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public int pattern(int p)
+	{
+		int[] around = LightGoban.aroundTable(boardSize);
+		int code = 0;
+		for (int k = 0; k < 8; k++) {
+			int q = around[8 * p + k];
+			code |= (q == NONE ? PatternTable.OFF_BOARD : color(q)) << 2 * k;
+		}
+		return code;
+	}
+
+	/**
+	 * Changes are not tracked, so all empty points are returned.
+	 */
+	@Override
+	public int changedPoints(int[] points)
+	{
+		return emptyPoints(points);
+	}
+
+	@Override
+	public double suitability(int p, byte color)
+	{
+		if (!isLegal(p, color))
+			return 0;
+
+		int b = toBit[p];
+		long[] own = stones(color);
+		int numCaptured = 0;
+		int atari = 0;
+		Arrays.fill(seen, 0);
+		Arrays.fill(captured, 0);
+		set(seen, b);
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q == NONE || get(empty, toBit[q]) || get(seen, toBit[q]) || get(captured, toBit[q]))
+				continue;
+			boolean isOwn = get(own, toBit[q]);
+			boolean inAtari = liberties(toBit[q], isOwn ? color : LightGoban.opposite(color), 2) == 1;
+			int size = 0;
+			for (int j = 0; j < numWords; j++) {
+				size += Long.bitCount(chain[j]);
+				if (isOwn)
+					seen[j] |= chain[j];
+				else if (inAtari)
+					captured[j] |= chain[j];
+			}
+			if (!isOwn && inAtari)
+				numCaptured += size;
+			else if (isOwn && inAtari)
+				atari += size;
+		}
+
+		// don't fill an eye
+		if (numCaptured == 0 && isEye(p, color))
+			return 0;
+
+		// seen now holds the chain after the move, count its liberties
+		dilate(seen, tmp);
+		int size = 0;
+		int liberties = 0;
+		for (int i = 0; i < numWords; i++) {
+			size += Long.bitCount(seen[i]);
+			liberties += Long.bitCount(tmp[i] & ~seen[i] & (empty[i] | captured[i]));
+		}
+		return Playout.suitability(numCaptured, atari, size, Math.min(liberties, 2));
+	}
+
+	/**
+	 * Play a legal move. Adjacent enemy chains without liberties are removed.
+	 *
+	 * @return the number of captured stones.
+	 */
+	@Override
+	public final int play(int p, byte color)
+	{
+		ko = NONE;
+		int b = toBit[p];
+		addStone(b, color);
+
+		byte enemyColor = LightGoban.opposite(color);
+		long[] enemy = stones(enemyColor);
+		int numCaptured = 0;
+		int capturedStone = NONE;
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q == NONE || !get(enemy, toBit[q]))
+				continue;
+			if (liberties(toBit[q], enemyColor, 1) == 0) {
+				int size = 0;
+				for (int j = 0; j < numWords; j++) {
+					size += Long.bitCount(chain[j]);
+					enemy[j] &= ~chain[j];
+					empty[j] |= chain[j];
+				}
+				numCaptured += size;
+				capturedStone = q;
+			}
+		}
+		if (numCaptured > 0)
+			addCaptureStones(LightGoban.toBoardType(enemyColor), numCaptured);
+
+		if (numCaptured == 1 && liberties(b, color, 2) == 1) {
+			int size = 0;
+			for (int j = 0; j < numWords; j++)
+				size += Long.bitCount(chain[j]);
+			if (size == 1)
+				ko = capturedStone;
+		}
+		return numCaptured;
+	}
+
+	/**
+	 * Pass. This only clears the ko point.
+	 */
+	@Override
+	public final void pass()
+	{
+		ko = NONE;
+	}
+
+	private void addStone(int b, byte color)
+	{
+		set(stones(color), b);
+		empty[b >>> 6] &= ~(1L << b);
+	}
+
+	/**
+	 * Calculate the area score, assuming all stones on the board are alive.
+	 * The empty points reachable from black and from white stones are
+	 * determined by flood fill; points reachable from only one color are
+	 * territory of that color.
+	 *
+	 * @param territory
+	 *            if not null, +1 is added for each point owned by black, -1 for
+	 *            each point owned by white.
+	 * @return the area score, positive values are good for black.
+	 */
+	@Override
+	public int chineseScore(double[][] territory)
+	{
+		if (territory == null)
+			return areaScore(null);
+		int[] owner = new int[numPoints];
+		int score = areaScore(owner);
+		Ownership.addTo(territory, owner);
+		return score;
+	}
+
+	/**
+	 * Calculate the area score like {@link #chineseScore(double[][])}.
+	 *
+	 * @param owner
+	 *            if not null, the owner of each point is stored: 1 for black,
+	 *            -1 for white and 0 for neutral points.
+	 * @return the area score, positive values are good for black.
+	 */
+	@Override
+	public int areaScore(int[] owner)
+	{
+		reach(black, chain);
+		reach(white, seen);
+		if (owner != null)
+			Arrays.fill(owner, 0);
+		int score = 0;
+		for (int i = 0; i < numWords; i++) {
+			long blackArea = black[i] | (chain[i] & ~seen[i]);
+			long whiteArea = white[i] | (seen[i] & ~chain[i]);
+			score += Long.bitCount(blackArea) - Long.bitCount(whiteArea);
+			if (owner != null) {
+				setOwner(owner, i, blackArea, 1);
+				setOwner(owner, i, whiteArea, -1);
+			}
+		}
+		return score;
+	}
+
+	private void setOwner(int[] owner, int i, long w, int v)
+	{
+		while (w != 0) {
+			owner[toPoint[64 * i + Long.numberOfTrailingZeros(w)]] = v;
+			w &= w - 1;
+		}
+	}
+
+	/**
+	 * Store the empty points reachable from <code>stones</code> in
+	 * <code>dst</code>.
+	 */
+	private void reach(long[] stones, long[] dst)
+	{
+		dilate(stones, dst);
+		for (int i = 0; i < numWords; i++)
+			dst[i] &= empty[i];
+		grow(empty, dst);
+	}
+
+	/**
+	 * Store the chain of stones in <code>stones</code> containing bit
+	 * <code>b</code> in <code>dst</code>.
+	 */
+	private void flood(int b, long[] stones, long[] dst)
+	{
+		Arrays.fill(dst, 0);
+		set(dst, b);
+		grow(stones, dst);
+	}
+
+	/**
+	 * Grow <code>area</code> inside <code>mask</code> until it doesn't change
+	 * any more.
+	 */
+	private void grow(long[] mask, long[] area)
+	{
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			dilate(area, fill);
+			for (int i = 0; i < numWords; i++) {
+				long w = fill[i] & mask[i] | area[i];
+				if (w != area[i]) {
+					area[i] = w;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store <code>src</code> and all its neighbors in <code>dst</code>.
+	 */
+	private void dilate(long[] src, long[] dst)
+	{
+		int s = stride;
+		for (int i = 0; i < numWords; i++) {
+			long w = src[i];
+			long lo = i > 0 ? src[i - 1] : 0;
+			long hi = i + 1 < numWords ? src[i + 1] : 0;
+			long d = w | w << 1 | lo >>> 63 | w >>> 1 | hi << 63
+			         | w << s | lo >>> (64 - s) | w >>> s | hi << (64 - s);
+			dst[i] = d & onBoard[i];
+		}
+	}
+
+	private static boolean get(long[] bits, int b)
+	{
+		return (bits[b >>> 6] & (1L << b)) != 0;
+	}
+
+	private static void set(long[] bits, int b)
+	{
+		bits[b >>> 6] |= 1L << b;
+	}
+
+	@Override
+	public Goban transform(Symmetry s)
+	{
+		Goban m = newInstance();
+		for (int p = 0; p < numPoints; p++) {
+			byte c = color(p);
+			if (c != EMPTY) {
+				Point pt = s.transform(p / boardSize, p % boardSize, boardSize);
+				m.putStone(pt, s.transform(LightGoban.toBoardType(c)));
+			}
+		}
+		return m;
+	}
+
+	@Override
+	public int zobristHash()
+	{
+		int hash = 0;
+		int n = 0;
+		for (int p = 0; p < numPoints; p++) {
+			byte c = color(p);
+			if (c != EMPTY) {
+				n++;
+				if (c == BLACK)
+					hash += zobrist[p];
+				else
+					hash -= zobrist[p];
+			}
+		}
+		return (hash & 0x01ffffff) | ((n & 0xfe) << (32 - 7));
+	}
+}
@@ -15,23 +15,35 @@
  */
 package de.cgawron.go.montecarlo;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -99,60 +111,408 @@ public class Evaluator
 		@XmlAttribute
 		public boolean checkTerritory = true;
 
+		/**
+		 * Use the allocation free {@link Playout} below the leafs of the
+		 * analysis tree instead of creating an {@link AnalysisNode} for each
+		 * move. Without it, a {@link #lightTree light tree} creates a goban
+		 * for each leaf to play out from. A {@link #arenaTree} search always
+		 * uses light playouts.
+		 */
+		@XmlAttribute
+		public boolean lightPlayout = true;
+
+		/**
+		 * Use the bitboard based {@link BitGoban} instead of
+		 * {@link LightGoban} for light playouts.
+		 */
+		@XmlAttribute
+		public boolean bitboardPlayout = false;
+
+		/**
+		 * Create the nodes below the root without a goban of their own. The
+		 * simulations then play the moves of the tree on a single
+		 * {@link LightGoban} per thread and take them back afterwards.
+		 */
+		@XmlAttribute
+		public boolean lightTree = true;
+
+		/**
+		 * The number of lost simulations a node is penalized with while a
+		 * simulation passing through it is in progress. This spreads
+		 * concurrent simulations over different branches of the tree; 0
+		 * disables virtual loss.
+		 */
+		@XmlAttribute
+		public int virtualLoss = 1;
+
+		/**
+		 * The number of slots of the transposition table, see
+		 * {@link TranspositionTable#TranspositionTable(int)}.
+		 */
+		@XmlAttribute
+		public int transpositionTableSlots = 1 << 21;
+
+		/**
+		 * The memory budget of the analysis tree in megabytes, as estimated
+		 * by {@link SearchMetrics#getTreeMemoryEstimate()}. When it is used
+		 * up, leaves are no longer expanded and nodes no longer widened. 0
+		 * disables the limit.
+		 */
+		@XmlAttribute
+		public int treeMemory = 256;
+
+		/**
+		 * A file with 3x3 pattern weights for the playouts, see
+		 * {@link PatternTable}. No patterns are used if this is null.
+		 */
+		@XmlAttribute
+		public String patternFile = null;
+
+		/**
+		 * The number of visits at which a child's mean value and its RAVE
+		 * (all-moves-as-first) value get the same weight in the selection,
+		 * see {@link AnalysisNode#selectRandomUCTMove()}. 0 disables RAVE.
+		 */
+		@XmlAttribute
+		public int raveEquivalence = 1000;
+
+		/**
+		 * The value of a child which has neither been visited nor has RAVE
+		 * statistics, used in place of its mean value in the selection.
+		 */
+		@XmlAttribute
+		public double firstPlayUrgency = 0.5;
+
+		/**
+		 * The number of children a node gets when it is expanded. More
+		 * children are added as the node is visited, see
+		 * {@link Evaluator#allowedChildren(int)}, in the order of their
+		 * {@link AnalysisNode#prior prior}. 0 disables progressive widening,
+		 * i.e. all moves become children at once.
+		 */
+		@XmlAttribute
+		public int wideningBase = 10;
+
+		/**
+		 * The factor by which the number of visits has to grow for each
+		 * additional child.
+		 */
+		@XmlAttribute
+		public double wideningFactor = 1.4;
+
+		/**
+		 * Search in a {@link TreeArena} instead of a tree of
+		 * {@link AnalysisNode}s. Only the children of the root are turned
+		 * into nodes when the search is done.
+		 */
+		@XmlAttribute
+		public boolean arenaTree = false;
+
+		/**
+		 * The number of nodes of the {@link TreeArena}.
+		 */
+		@XmlAttribute
+		public int arenaSize = 1 << 20;
+
+		/**
+		 * Stop a search before its budget is used up if the best move is
+		 * decided, see {@link Evaluator#isDecided}.
+		 */
+		@XmlAttribute
+		public boolean earlyStopping = true;
+
+		/**
+		 * The width, in standard errors, of the confidence intervals used to
+		 * stop a search early. 0 only stops if the best move can't be
+		 * overtaken.
+		 */
+		@XmlAttribute
+		public double stopConfidence = 3;
+
+		/**
+		 * The seed of the random number generators, 0 for a different seed in
+		 * each run. Each search thread is seeded with this value plus its
+		 * number, so a search with one thread, without a deadline and
+		 * without early stopping can be repeated exactly. With more threads,
+		 * the order in which they update the tree still varies.
+		 */
+		@XmlAttribute
+		public long seed = 0;
+
+		/**
+		 * How the threads share the work of a search, see
+		 * {@link Parallelism}. A {@link TreeArena} is always shared.
+		 */
+		@XmlAttribute
+		public Parallelism parallelism = Parallelism.TREE;
+
+		/**
+		 * The {@link SearchServer}s which search the root position in
+		 * addition to the local threads, as a comma separated list of
+		 * <code>host:port</code>. Their statistics of the root's children
+		 * are added to the local ones when the search is done.
+		 */
+		@XmlAttribute
+		public String workers = null;
+
+		/**
+		 * The time (in milliseconds) to wait for a worker if the search has
+		 * no deadline. A worker which doesn't answer in time is ignored.
+		 */
+		@XmlAttribute
+		public long workerTimeout = 60000;
+
 		@Override
 		public String toString()
 		{
 			return "EvaluatorParameters [maxMoves=" + maxMoves
 			                + ", numSimulations=" + numSimulations + ", numThreads="
-			                + numThreads + ", steepness=" + steepness + "]";
+			                + numThreads + ", steepness=" + steepness
+			                + ", lightPlayout=" + lightPlayout
+			                + ", bitboardPlayout=" + bitboardPlayout
+			                + ", lightTree=" + lightTree
+			                + ", virtualLoss=" + virtualLoss
+			                + ", transpositionTableSlots=" + transpositionTableSlots
+			                + ", treeMemory=" + treeMemory
+			                + ", patternFile=" + patternFile
+			                + ", raveEquivalence=" + raveEquivalence
+			                + ", firstPlayUrgency=" + firstPlayUrgency
+			                + ", wideningBase=" + wideningBase
+			                + ", wideningFactor=" + wideningFactor
+			                + ", arenaTree=" + arenaTree
+			                + ", arenaSize=" + arenaSize
+			                + ", earlyStopping=" + earlyStopping
+			                + ", stopConfidence=" + stopConfidence
+			                + ", seed=" + seed
+			                + ", parallelism=" + parallelism
+			                + ", workers=" + workers
+			                + ", workerTimeout=" + workerTimeout + "]";
 		}
 	}
 
-	public class RandomSimulator implements Callable<Double>
+	/**
+	 * The ways to parallelize a search.
+	 */
+	public enum Parallelism {
+		/** All threads search one tree. */
+		TREE,
+		/**
+		 * Each thread searches a tree of its own, the statistics of the
+		 * children of the roots are added up when the search is done.
+		 */
+		ROOT,
+		/**
+		 * One thread searches the tree and runs a playout per thread from
+		 * each leaf it reaches. This needs
+		 * {@link EvaluatorParameters#lightTree}.
+		 */
+		LEAF
+	}
+
+	/**
+	 * A search of the root position by a {@link SearchServer}.
+	 */
+	private static class RemoteSearch implements Callable<RootStatistics>
+	{
+		private final String host;
+		private final int port;
+		private final AnalysisNode root;
+		private final int numSimulations;
+		private final long time;
+		private final long timeout;
+		private volatile Socket socket;
+
+		/**
+		 * @param timeout
+		 *            the time (in milliseconds) to wait for the result.
+		 */
+		RemoteSearch(String address, AnalysisNode root, int numSimulations, long time, long timeout)
+		{
+			int colon = address.lastIndexOf(':');
+			if (colon < 0)
+				throw new IllegalArgumentException("expected host:port: " + address);
+			this.host = address.substring(0, colon).trim();
+			this.port = Integer.parseInt(address.substring(colon + 1).trim());
+			this.root = root;
+			this.numSimulations = numSimulations;
+			this.time = time;
+			this.timeout = timeout;
+		}
+
+		@Override
+		public RootStatistics call() throws Exception
+		{
+			socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(host, port), REMOTE_CONNECT_TIMEOUT);
+				socket.setSoTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				SearchServer.writeRequest(out, root, numSimulations, time);
+				out.flush();
+				return SearchServer.readResponse(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+				                                 root.boardSize * root.boardSize);
+			} finally {
+				socket.close();
+			}
+		}
+
+		/**
+		 * Abandon the search.
+		 */
+		void cancel()
+		{
+			try {
+				if (socket != null)
+					socket.close();
+			} catch (IOException ex) {
+				logger.log(Level.FINE, "closing " + host + ":" + port, ex);
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return host + ":" + port;
+		}
+	}
+
+	/**
+	 * A search thread. The threads share a counter of started simulations
+	 * and run simulations until the budget is used up or the search is
+	 * stopped, so no task has to be submitted per simulation.
+	 */
+	public class RandomSimulator implements Callable<Integer>
 	{
 		private final AnalysisNode node;
-		private final double[][] territory;
+		private final int budget;
+		private final int index;
 
-		public RandomSimulator(AnalysisNode root, double[][] territory)
+		/**
+		 * @param index
+		 *            the number of the thread, used to seed its random
+		 *            number generator if {@link EvaluatorParameters#seed}
+		 *            is set.
+		 */
+		public RandomSimulator(AnalysisNode root, int budget, int index)
 		{
 			this.node = root;
-			this.territory = territory;
+			this.budget = budget;
+			this.index = index;
 		}
 
 		@Override
-		public Double call() throws Exception
+		public Integer call() throws Exception
 		{
+			int n = 0;
+			if (parameters.seed != 0)
+				FastRandom.get().setSeed(parameters.seed + index);
+			SearchMetrics.ThreadMetrics threadMetrics = metrics.attach();
+			Ownership.ThreadOwnership threadOwnership = parameters.checkTerritory ? ownership.attach() : null;
 			try {
-				evaluateSequenceByUCT(node, territory);
-				return node.getValue();
+				if (rootNodes != null)
+					rootSearches[index].startRootSearch(rootNodes[index]);
+				int playouts = playoutsPerSimulation();
+				while (!stopSearch && started.getAndAdd(playouts) < budget) {
+					if (parameters.arenaTree)
+						arena.simulate(threadOwnership);
+					else if (rootNodes != null)
+						rootSearches[index].evaluateSequenceByUCT(rootNodes[index], threadOwnership);
+					else
+						evaluateSequenceByUCT(node, threadOwnership);
+					finished.addAndGet(playouts);
+					threadMetrics.simulations += playouts;
+					n++;
+				}
+				return n;
 			} catch (Throwable t) {
 				logger.log(Level.SEVERE, "Exception caught", t);
+				stopSearch = true;
 				throw new ExecutionException(t);
 			}
-
 		}
 	}
 
 	final static Logger logger = Logger.getLogger(Evaluator.class.getName());
 
+	/** The interval (in milliseconds) at which the stopping rules are checked. */
+	private static final long CHECK_INTERVAL = 10;
+
+	/** The number of simulations before a search may stop early. */
+	private static final int MIN_SIMULATIONS = 100;
+
+	/** The visits a child needs before its confidence interval is used. */
+	private static final int MIN_VISITS = 30;
+
+	/** The time (in milliseconds) a remote search may exceed the deadline. */
+	private static final long REMOTE_GRACE = 2000;
+
+	/** The time (in milliseconds) to wait for a connection to a worker. */
+	private static final int REMOTE_CONNECT_TIMEOUT = 5000;
+
 	public static EvaluatorParameters parameters;
 
-	public static int chineseScore(AnalysisNode node, double[][] territory)
+	public static int chineseScore(AnalysisNode node, int[] owner)
 	{
-		return node.goban.chineseScore(territory);
+		SearchEvents.ScoringEvent event = SearchEvents.scoring();
+		int score = node.goban.areaScore(owner);
+		if (event != null)
+			event.finish(node.moveNo, node.boardSize);
+		return score;
 	}
 
 	private ExecutorService executor;
+	private ExecutorService leafExecutor;
 	private List<EvaluatorListener> listeners = new ArrayList<EvaluatorListener>();
 	private int simulation;
-	private double[][] territory;
 
-	Map<AnalysisNode, AnalysisNode> workingTree;
+	/** The simulations started and finished by the running search. */
+	private final AtomicInteger started = new AtomicInteger();
+	private final AtomicInteger finished = new AtomicInteger();
+
+	/** Set to end the running search, see {@link #stop()}. */
+	private volatile boolean stopSearch;
+
+	/** Set by {@link #stop()}, remote searches are then abandoned. */
+	private volatile boolean stopRequested;
+
+	/** The threads waiting for the {@link SearchServer}s. */
+	private ExecutorService remoteExecutor;
+
+	TranspositionTable transpositionTable;
+
+	/** The tree used if {@link EvaluatorParameters#arenaTree} is set. */
+	private TreeArena arena;
+
+	/** The searches and their roots for {@link Parallelism#ROOT}. */
+	private Evaluator[] rootSearches;
+	private int rootSearchSlots;
+	private AnalysisNode[] rootNodes;
+
+	/** The playout rate of the last search. */
+	private double playoutsPerSecond;
+
+	private final SearchMetrics metrics = new SearchMetrics();
+
+	/** The owners of the points, counted if {@link EvaluatorParameters#checkTerritory} is set. */
+	private final Ownership ownership = new Ownership();
+
+	/** The position of the root for {@link EvaluatorParameters#lightTree}. */
+	private LightGoban rootBoard;
+	private AnalysisNode rootBoardNode;
 
 	public Evaluator()
 	{
 		parameters = new EvaluatorParameters();
-		workingTree = new WeakHashMap<AnalysisNode, AnalysisNode>();
+		transpositionTable = new TranspositionTable(parameters.transpositionTableSlots);
+	}
+
+	/**
+	 * Create an evaluator for one of the trees of a root parallel search,
+	 * keeping the parameters.
+	 */
+	private Evaluator(TranspositionTable transpositionTable)
+	{
+		this.transpositionTable = transpositionTable;
 	}
 
 	public void addEvaluatorListener(EvaluatorListener listener)
@@ -160,32 +520,149 @@ public class Evaluator
 		listeners.add(listener);
 	}
 
+	/**
+	 * Expand a node. The pass always becomes a child. The candidate moves are
+	 * sorted by their prior, but only the first {@link #allowedChildren(int)}
+	 * of them become children; more are added by {@link #widen} as the node
+	 * is visited. The children are
+	 * collected in a new set which is published only when complete, so other
+	 * threads may iterate <code>node.children</code> without locking.
+	 * Expanded nodes are stored in the transposition table, and children
+	 * reached by a different move order are replaced by the stored node; if
+	 * its move differs, the move is recorded by
+	 * {@link AnalysisNode#setChildMove}.
+	 */
 	protected void createNode(AnalysisNode node)
 	{
-		if (workingTree.containsKey(node)) {
+		createNode(node, null);
+	}
+
+	/**
+	 * Expand a node.
+	 * 
+	 * @param board
+	 *            if not null, it holds the position of <code>node</code> and
+	 *            the children are created without a goban.
+	 * @see #createNode(AnalysisNode)
+	 */
+	protected void createNode(AnalysisNode node, LightGoban board)
+	{
+		if (node.children != null) {
 			// logger.info("Node " + node + " already present!");
 			return;
 		}
 
+		long wait = System.nanoTime();
 		synchronized (node) {
-			node.children = new HashSet<AnalysisNode>();
-			workingTree.put(node, node);
-
-			for (Point p : Point.all(node.boardSize)) {
-				AnalysisNode child = node.createChild(p);
-				if (child.suitability > 0) {
-					if (workingTree.containsKey(child.goban)) {
-						child = workingTree.get(child.goban);
-					}
-					node.children.add(child);
-				}
-			}
-			AnalysisNode child = node.createPassNode();
-			child.value = 0.1;
-			if (workingTree.containsKey(child.goban)) {
-				child = workingTree.get(child.goban);
-			}
-			node.children.add(child);
+			SearchMetrics.get().lockWaitNanos += System.nanoTime() - wait;
+			if (node.children != null)
+				return;
+
+			SearchEvents.ExpansionEvent event = SearchEvents.expansion();
+			node.createCandidates(board);
+			Set<AnalysisNode> children = new HashSet<AnalysisNode>();
+			AnalysisNode pass = board != null ? node.createChild(LightGoban.NONE, board) : node.createPassNode();
+			pass.setValueSum(0.1);
+			children.add(transposition(node, pass));
+			addChildren(node, board, children, allowedChildren(0));
+			node.children = children;
+			transpositionTable.putIfAbsent(node);
+			if (event != null)
+				event.finish(node.moveNo, children.size(), node.boardSize);
+		}
+	}
+
+	/**
+	 * Get the number of children a node with <code>visits</code> visits may
+	 * have, including the pass. It grows by one each time the visits grow by
+	 * {@link EvaluatorParameters#wideningFactor}.
+	 */
+	static int allowedChildren(int visits)
+	{
+		int base = parameters.wideningBase;
+		if (base <= 0)
+			return Integer.MAX_VALUE;
+		return base + (int) (Math.log(1 + (double) visits / base) / Math.log(parameters.wideningFactor));
+	}
+
+	/**
+	 * Check if the tree of the search the current thread counts in has used
+	 * up its {@link EvaluatorParameters#treeMemory}.
+	 */
+	static boolean isTreeFull()
+	{
+		SearchMetrics search = SearchMetrics.get().search;
+		return parameters.treeMemory > 0 && search != null
+		       && search.getTreeMemoryEstimate() > ((long) parameters.treeMemory << 20);
+	}
+
+	/**
+	 * Add children to an expanded node until it has <code>allowed</code>
+	 * children or no candidates are left. Nodes are not widened once the
+	 * tree is full, except to find a move which isn't a ko capture.
+	 * 
+	 * @param board
+	 *            holds the position of <code>node</code>, or null if the
+	 *            node has a goban.
+	 */
+	protected void widen(AnalysisNode node, LightGoban board, int allowed)
+	{
+		if (node.children.size() >= allowed || !node.hasCandidates())
+			return;
+		if (allowed < Integer.MAX_VALUE && isTreeFull())
+			return;
+
+		long wait = System.nanoTime();
+		synchronized (node) {
+			SearchMetrics.get().lockWaitNanos += System.nanoTime() - wait;
+			if (node.children.size() >= allowed || !node.hasCandidates())
+				return;
+			Set<AnalysisNode> children = new HashSet<AnalysisNode>(node.children);
+			addChildren(node, board, children, allowed);
+			node.children = children;
+		}
+	}
+
+	/**
+	 * Turn candidates of <code>node</code> into children, in the order of
+	 * their priors. The caller has to hold the lock of the node.
+	 */
+	private void addChildren(AnalysisNode node, LightGoban board, Set<AnalysisNode> children, int allowed)
+	{
+		while (children.size() < allowed && node.hasCandidates()) {
+			int p = node.candidates[node.nextCandidate++];
+			AnalysisNode child;
+			if (board != null)
+				child = node.createChild(p, board);
+			else
+				child = node.createChild(new Point(p / node.boardSize, p % node.boardSize));
+
+			if (child.suitability > 0)
+				children.add(transposition(node, child));
+		}
+	}
+
+	/**
+	 * Get the node stored in the transposition table for the position of
+	 * <code>child</code>. Only nodes with the same move number are shared,
+	 * so a descent through the tree can't run into a cycle. The stored node
+	 * may have been reached by another move, so the move of
+	 * <code>child</code> is recorded in <code>parent</code>. The caller has
+	 * to hold the lock of <code>parent</code>.
+	 * 
+	 * @return the stored node, or <code>child</code> if there is none.
+	 */
+	private AnalysisNode transposition(AnalysisNode parent, AnalysisNode child)
+	{
+		AnalysisNode node = transpositionTable.get(child.getKey());
+		if (node != null && node.moveNo == child.moveNo) {
+			SearchMetrics.get().transpositionHits++;
+			parent.setChildMove(node, child.getMoveIndex());
+			return node;
+		}
+		else {
+			SearchMetrics.get().nodes++;
+			return child;
 		}
 	}
 
@@ -219,9 +696,9 @@ public class Evaluator
 			int b = 0;
 			double best = 0;
 			for (AnalysisNode n : currentLevel) {
-				if (n.value > best)
-					best = n.value;
-				if (n.value < factor * best)
+				if (n.getValueSum() > best)
+					best = n.getValueSum();
+				if (n.getValueSum() < factor * best)
 					break;
 				logger.info("level=" + d + ", n=" + (b++) + ": " + n);
 				if (n.children != null)
@@ -235,57 +712,161 @@ public class Evaluator
 
 	/** Evaluates the score of a Goban */
 
+	/**
+	 * Prepare the tree below <code>root</code> for another search, e.g. after
+	 * {@link AnalysisNode#advance}. The transposition table is cleared and
+	 * the expanded nodes below <code>root</code> are stored again, with move
+	 * numbers relative to the root, so the statistics of the subtree are
+	 * kept while the rest of the old tree is released.
+	 */
+	protected void reuseTree(AnalysisNode root)
+	{
+		transpositionTable.clear();
+		if (root.children == null)
+			return;
+
+		int offset = root.moveNo;
+		Set<AnalysisNode> visited = Collections.newSetFromMap(new IdentityHashMap<AnalysisNode, Boolean>());
+		Deque<AnalysisNode> stack = new ArrayDeque<AnalysisNode>();
+		stack.push(root);
+		visited.add(root);
+		while (!stack.isEmpty()) {
+			AnalysisNode node = stack.pop();
+			node.moveNo -= offset;
+			Set<AnalysisNode> children = node.children;
+			if (children == null)
+				continue;
+			transpositionTable.putIfAbsent(node);
+			for (AnalysisNode child : children) {
+				if (visited.add(child))
+					stack.push(child);
+			}
+		}
+		metrics.setReusedNodes(visited.size());
+		logger.info("reusing " + visited.size() + " nodes, root visits=" + root.getVisits());
+	}
+
 	/** Evaluates the score of a Goban */
 	public double evaluate(AnalysisNode root)
 	{
-		// FIXME How can we avoid this?
-		workingTree.clear();
+		return evaluate(root, 0);
+	}
 
-		int boardSize = root.boardSize;
-		createNode(root);
-		if (parameters.checkTerritory)
-			territory = new double[boardSize][boardSize];
-		else
-			territory = null;
+	/**
+	 * Evaluate <code>root</code> until a deadline. Unless
+	 * {@link EvaluatorParameters#earlyStopping} is cleared, the search stops
+	 * early if the best child is decided, see {@link #isDecided}.
+	 * 
+	 * @param deadline
+	 *            the time in milliseconds (see
+	 *            {@link System#currentTimeMillis()}) at which the search
+	 *            stops. If it is 0, {@link EvaluatorParameters#numSimulations}
+	 *            simulations are run.
+	 */
+	public double evaluate(AnalysisNode root, long deadline)
+	{
+		return evaluate(root, deadline, parameters.numSimulations);
+	}
+
+	/**
+	 * Evaluate <code>root</code> until a deadline or, if
+	 * <code>deadline</code> is 0, with <code>numSimulations</code>
+	 * simulations. This is used by a {@link SearchServer}, which must not
+	 * change the shared {@link EvaluatorParameters#numSimulations}.
+	 */
+	public double evaluate(AnalysisNode root, long deadline, int numSimulations)
+	{
+		return evaluate(root, deadline, numSimulations, parameters.earlyStopping);
+	}
 
-		Queue<Future<Double>> workQueue = new LinkedList<Future<Double>>();
+	/**
+	 * Search <code>root</code> until {@link #stop()} is called, e.g. while
+	 * the opponent is thinking. The search never stops early, whatever
+	 * {@link EvaluatorParameters#earlyStopping} says, as there is nothing
+	 * else to do with the time.
+	 */
+	public double ponder(AnalysisNode root)
+	{
+		return evaluate(root, Long.MAX_VALUE, parameters.numSimulations, false);
+	}
 
-		for (simulation = 0; simulation < parameters.numSimulations; simulation++) {
-			Callable<Double> simulation = new RandomSimulator(root, territory);
-			workQueue.add(getExecutor().submit(simulation));
+	private double evaluate(AnalysisNode root, long deadline, int numSimulations, boolean earlyStopping)
+	{
+		SearchEvents.SearchEvent searchEvent = SearchEvents.search();
+		stopSearch = false;
+		stopRequested = false;
+		metrics.start(root.boardSize, parameters.arenaTree ? getArena() : null);
+		ownership.start(root.boardSize);
+		reuseTree(root);
 
-			// evaluateSequenceByUCT(root, territory);
-			// logger.info("simulation " + simulation + ": value=" + root.value
-			// + ", tree size: " + workingTree.size());
-		}
+		int boardSize = root.boardSize;
+		boolean rootParallel = !parameters.arenaTree && parameters.parallelism == Parallelism.ROOT;
+		rootNodes = null;
+		if (parameters.arenaTree)
+			getArena().reset(root, getRootBoard(root));
+		else if (rootParallel)
+			createRootSearches(root);
+		else
+			createNode(root, parameters.lightTree ? Playout.get().getTreeBoard(getRootBoard(root)) : null);
 
-		Future<Double> future;
-		while (workQueue.size() > 0) {
-			try {
-				future = workQueue.peek();
-				if (!future.isDone()) {
-					logger.info("still " + workQueue.size()
-					                + " simulations outstanding, value=" + root.getValue() + ", tree size=" + workingTree.size());
-					fireStillWorking(root, workQueue.size(), parameters.numSimulations);
-					Thread.sleep(500);
-					continue;
-				} else {
-					logger.info("value of " + future + ": " + future.get());
-					workQueue.remove(future);
+		int budget = deadline > 0 ? Integer.MAX_VALUE : numSimulations;
+		List<RemoteSearch> remoteSearches = new ArrayList<RemoteSearch>();
+		List<Future<RootStatistics>> remoteResults = startRemoteSearches(root, deadline, numSimulations,
+		                                                                 remoteSearches);
+		started.set(0);
+		finished.set(0);
+		List<Future<Integer>> workers = new ArrayList<Future<Integer>>();
+		int numWorkers = playoutsPerSimulation() > 1 ? 1 : parameters.numThreads;
+		for (int i = 0; i < numWorkers; i++)
+			workers.add(getExecutor().submit(new RandomSimulator(root, budget, i)));
+
+		long start = System.currentTimeMillis();
+		long lastReport = start;
+		for (Future<Integer> worker : workers) {
+			while (true) {
+				try {
+					logger.fine("simulations of " + worker + ": " + worker.get(CHECK_INTERVAL, TimeUnit.MILLISECONDS));
+					break;
+				} catch (TimeoutException ex) {
+					long now = System.currentTimeMillis();
+					if (!stopSearch && shouldStop(root, deadline, budget, now - start, earlyStopping))
+						stopSearch = true;
+					if (now - lastReport >= 500) {
+						int outstanding = deadline > 0 ? 0 : budget - finished.get();
+						logger.info("still " + outstanding
+						                + " simulations outstanding, value=" + root.getValue() + ", tree size=" + transpositionTable.size());
+						fireStillWorking(root, outstanding, deadline > 0 ? finished.get() : budget);
+						lastReport = now;
+					}
+				} catch (Exception ex) {
+					stopSearch = true;
+					Evaluator.logger.log(Level.WARNING, "evaluate: ", ex);
+					throw new RuntimeException(ex);
 				}
-			} catch (Exception ex) {
-				Evaluator.logger.log(Level.WARNING, "evaluate: ", ex);
-				throw new RuntimeException(ex);
 			}
 		}
-		fireDone(root, parameters.numSimulations);
+		simulation = finished.get();
+		metrics.end();
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		playoutsPerSecond = 1000.0 * simulation / elapsed;
+		logger.info(String.format("%d playouts in %d ms (%.0f/s), parallelism=%s", simulation, elapsed,
+		                          playoutsPerSecond, parameters.arenaTree ? "ARENA" : parameters.parallelism));
+		if (parameters.arenaTree)
+			copyArenaStatistics(root);
+		else if (rootParallel)
+			mergeRootSearches(root);
+		addRemoteSearches(root, deadline, remoteSearches, remoteResults);
+		fireDone(root, simulation);
+		if (searchEvent != null)
+			searchEvent.finish(boardSize, simulation, metrics.getTreeNodes());
 
 		StringBuffer sb = new StringBuffer();
-		if (territory != null) {
+		if (parameters.checkTerritory) {
+			double[][] territory = ownership.getOwnership();
 			for (int i = 0; i < boardSize; i++) {
 				sb.append("\n");
 				for (int j = 0; j < boardSize; j++) {
-					sb.append(String.format(" %3.1f", territory[i][j] / parameters.numSimulations));
+					sb.append(String.format(" %3.1f", territory[i][j]));
 				}
 			}
 		}
@@ -296,6 +877,130 @@ public class Evaluator
 		return root.getScore();
 	}
 
+	/**
+	 * Check if the running search can stop, because the deadline has passed
+	 * or, if <code>earlyStopping</code> is set, the best child of
+	 * <code>root</code> is decided.
+	 */
+	private boolean shouldStop(AnalysisNode root, long deadline, int budget, long elapsed, boolean earlyStopping)
+	{
+		int done = finished.get();
+		double remaining;
+		if (deadline > 0) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				return true;
+			remaining = (double) done / Math.max(elapsed, 1) * left;
+		}
+		else {
+			remaining = budget - done;
+		}
+		if (!earlyStopping || done < MIN_SIMULATIONS)
+			return false;
+
+		int n = 0;
+		int[] visits;
+		double[] valueSums;
+		if (parameters.arenaTree) {
+			int first = arena.getFirstChild(0);
+			int count = arena.getChildCount(0);
+			visits = new int[count];
+			valueSums = new double[count];
+			for (int c = first; c < first + count; c++) {
+				visits[n] = arena.getVisits(c);
+				valueSums[n++] = arena.getValueSum(c);
+			}
+		}
+		else if (rootNodes != null) {
+			// the children of root are those of a previous search
+			AnalysisNode[] nodes = rootNodes;
+			int numPoints = root.boardSize * root.boardSize;
+			RootStatistics statistics = new RootStatistics(numPoints);
+			for (AnalysisNode node : nodes)
+				statistics.add(node);
+			visits = new int[numPoints + 1];
+			valueSums = new double[numPoints + 1];
+			n = statistics.getChildren(visits, valueSums);
+		}
+		else {
+			Set<AnalysisNode> children = root.children;
+			if (children == null)
+				return false;
+			visits = new int[children.size()];
+			valueSums = new double[children.size()];
+			for (AnalysisNode child : children) {
+				if (n == visits.length)
+					break;
+				visits[n] = child.getVisits();
+				valueSums[n++] = child.getValueSum();
+			}
+		}
+		if (isDecided(visits, valueSums, n, remaining, parameters.stopConfidence)) {
+			logger.info("best move is decided, stopping after " + done + " simulations");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if the best of <code>n</code> children, i.e. the one with the
+	 * largest value sum (see {@link AnalysisNode#getBestChild()}), is
+	 * decided. This is the case if
+	 * <ul>
+	 * <li>the second best child can't catch up in <code>remaining</code>
+	 * simulations, as each simulation adds at most 1 to a value sum, or</li>
+	 * <li>the confidence interval of the best child's mean value lies above
+	 * those of all other visited children. The intervals are
+	 * <code>confidence</code> standard errors wide; 0 disables this rule.</li>
+	 * </ul>
+	 */
+	static boolean isDecided(int[] visits, double[] valueSums, int n, double remaining, double confidence)
+	{
+		int best = -1;
+		int second = -1;
+		for (int i = 0; i < n; i++) {
+			if (best < 0 || valueSums[i] > valueSums[best]) {
+				second = best;
+				best = i;
+			}
+			else if (second < 0 || valueSums[i] > valueSums[second]) {
+				second = i;
+			}
+		}
+		if (best < 0 || visits[best] == 0)
+			return false;
+		if (second < 0 || valueSums[best] - valueSums[second] > remaining)
+			return true;
+
+		if (confidence <= 0 || visits[best] < MIN_VISITS)
+			return false;
+		double lower = mean(visits[best], valueSums[best]) - confidence * error(visits[best], valueSums[best]);
+		for (int i = 0; i < n; i++) {
+			if (i == best || visits[i] == 0)
+				continue;
+			if (visits[i] < MIN_VISITS)
+				return false;
+			if (mean(visits[i], valueSums[i]) + confidence * error(visits[i], valueSums[i]) >= lower)
+				return false;
+		}
+		return true;
+	}
+
+	private static double mean(int visits, double valueSum)
+	{
+		return valueSum / visits;
+	}
+
+	/**
+	 * Get the standard error of a mean value, treating the values as
+	 * results of Bernoulli trials.
+	 */
+	private static double error(int visits, double valueSum)
+	{
+		double mean = mean(visits, valueSum);
+		return Math.sqrt(Math.max(mean * (1 - mean), 0) / visits);
+	}
+
 	/** Evaluates the score of a Goban */
 	public double evaluate(Goban goban, Goban.BoardType movingColor, double komi)
 	{
@@ -303,32 +1008,432 @@ public class Evaluator
 		return evaluate(root);
 	}
 
-	public void evaluateSequenceByUCT(AnalysisNode root, double[][] territory)
+	/**
+	 * Get the arena, which is allocated on first use and kept as long as
+	 * {@link EvaluatorParameters#arenaSize} does not change.
+	 */
+	TreeArena getArena()
+	{
+		if (arena == null || arena.capacity() != parameters.arenaSize)
+			arena = new TreeArena(parameters.arenaSize);
+		return arena;
+	}
+
+	/**
+	 * Send the position of <code>root</code> to the
+	 * {@link EvaluatorParameters#workers}.
+	 */
+	private List<Future<RootStatistics>> startRemoteSearches(AnalysisNode root, long deadline, int numSimulations,
+	                                                         List<RemoteSearch> remoteSearches)
+	{
+		List<Future<RootStatistics>> results = new ArrayList<Future<RootStatistics>>();
+		if (parameters.workers == null || parameters.workers.trim().length() == 0)
+			return results;
+
+		long time = deadline > 0 ? Math.max(deadline - System.currentTimeMillis(), 1) : 0;
+		long timeout = time > 0 ? time + REMOTE_GRACE : parameters.workerTimeout;
+		for (String address : parameters.workers.split(",")) {
+			RemoteSearch search = new RemoteSearch(address, root, numSimulations, time, timeout);
+			remoteSearches.add(search);
+			results.add(getRemoteExecutor().submit(search));
+		}
+		return results;
+	}
+
+	/**
+	 * Wait for the results of the remote searches and add them to
+	 * <code>root</code>. A worker which fails or doesn't answer in time is
+	 * ignored.
+	 */
+	private void addRemoteSearches(AnalysisNode root, long deadline, List<RemoteSearch> remoteSearches,
+	                               List<Future<RootStatistics>> results)
+	{
+		for (int i = 0; i < results.size(); i++) {
+			RemoteSearch search = remoteSearches.get(i);
+			try {
+				if (stopRequested) {
+					search.cancel();
+					continue;
+				}
+				long wait;
+				if (deadline > 0)
+					wait = Math.max(deadline - System.currentTimeMillis(), 0) + REMOTE_GRACE;
+				else
+					wait = parameters.workerTimeout;
+				RootStatistics statistics = results.get(i).get(wait, TimeUnit.MILLISECONDS);
+				statistics.addTo(root);
+				logger.info("added " + statistics.getVisits() + " simulations of " + search);
+			} catch (Exception ex) {
+				search.cancel();
+				logger.log(Level.WARNING, "remote search " + search + " failed", ex);
+			}
+		}
+	}
+
+	private synchronized ExecutorService getRemoteExecutor()
+	{
+		if (remoteExecutor == null) {
+			remoteExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "remote search");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return remoteExecutor;
+	}
+
+	/**
+	 * Get the number of playouts run from each leaf of the tree.
+	 */
+	private static int playoutsPerSimulation()
+	{
+		if (parameters.parallelism == Parallelism.LEAF && parameters.lightTree && !parameters.arenaTree)
+			return parameters.numThreads;
+		else
+			return 1;
+	}
+
+	/**
+	 * Get the playouts per second of the last search.
+	 */
+	public double getPlayoutsPerSecond()
+	{
+		return playoutsPerSecond;
+	}
+
+	/**
+	 * Get the metrics of the running or the last search.
+	 */
+	public SearchMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Get the owners of the points counted by the running or the last search.
+	 * They are only counted if {@link EvaluatorParameters#checkTerritory} is
+	 * set.
+	 */
+	public Ownership getOwnership()
+	{
+		return ownership;
+	}
+
+	/**
+	 * Create a tree for each thread of a root parallel search, each with a
+	 * root of its own at the position of <code>root</code>. The threads share
+	 * the {@link EvaluatorParameters#transpositionTableSlots}, so each
+	 * tree gets a table of <code>1 / numThreads</code> of the slots.
+	 */
+	private void createRootSearches(AnalysisNode root)
+	{
+		int n = parameters.numThreads;
+		int slots = parameters.transpositionTableSlots / n;
+		if (rootSearches == null || rootSearches.length != n || rootSearchSlots != slots) {
+			rootSearches = new Evaluator[n];
+			for (int i = 0; i < n; i++)
+				rootSearches[i] = new Evaluator(new TranspositionTable(slots));
+			rootSearchSlots = slots;
+		}
+		rootNodes = new AnalysisNode[n];
+		for (int i = 0; i < n; i++)
+			rootNodes[i] = new AnalysisNode(root.getGoban(), root.movingColor, root.komi);
+	}
+
+	/**
+	 * Prepare the tree of a thread of a root parallel search: the table is
+	 * cleared and <code>root</code> is expanded. This is done by the thread
+	 * itself, so the tables are cleared in parallel.
+	 */
+	private void startRootSearch(AnalysisNode root)
+	{
+		transpositionTable.clear();
+		createNode(root, parameters.lightTree ? Playout.get().getTreeBoard(getRootBoard(root)) : null);
+	}
+
+	/**
+	 * Add up the statistics of the children of the roots of a root parallel
+	 * search and add them to <code>root</code>. The children kept by
+	 * {@link #reuseTree} keep their statistics and subtrees.
+	 */
+	private void mergeRootSearches(AnalysisNode root)
+	{
+		RootStatistics statistics = new RootStatistics(root.boardSize * root.boardSize);
+		for (AnalysisNode node : rootNodes)
+			statistics.add(node);
+		statistics.addTo(root);
+		rootNodes = null;
+	}
+
+	/**
+	 * Create the child of <code>root</code> for the move at point index
+	 * <code>p</code>, or for a pass if <code>p</code> is
+	 * {@link LightGoban#NONE}.
+	 */
+	static AnalysisNode createRootChild(AnalysisNode root, int p)
 	{
-		AnalysisNode[] sequence = new AnalysisNode[parameters.maxMoves];
+		if (p == LightGoban.NONE)
+			return root.createPassNode();
+		else
+			return root.createChild(new Point(p / root.boardSize, p % root.boardSize));
+	}
+
+	/**
+	 * Add the statistics of the visited children of the arena's root to the
+	 * children of <code>root</code>, so the result can be inspected as usual.
+	 * The children kept by {@link #reuseTree} keep their statistics and
+	 * subtrees; the arena itself starts each search empty.
+	 */
+	private void copyArenaStatistics(AnalysisNode root)
+	{
+		RootStatistics statistics = new RootStatistics(root.boardSize * root.boardSize);
+		int first = arena.getFirstChild(0);
+		for (int c = first; c < first + arena.getChildCount(0); c++) {
+			if (arena.getVisits(c) == 0)
+				continue;
+			statistics.addChild(arena.getMove(c), arena.getVisits(c), arena.getValueSum(c), arena.getScoreSum(c));
+		}
+		statistics.addRoot(arena.getVisits(0), arena.getValueSum(0), arena.getScoreSum(0));
+		statistics.addTo(root);
+	}
+
+	/**
+	 * Get the position of <code>root</code> as a {@link LightGoban}. The
+	 * simulator threads copy it into their own board.
+	 */
+	private synchronized LightGoban getRootBoard(AnalysisNode root)
+	{
+		if (rootBoardNode != root) {
+			rootBoard = new LightGoban(root.getGoban());
+			rootBoardNode = root;
+		}
+		return rootBoard;
+	}
+
+	public void evaluateSequenceByUCT(AnalysisNode root, Ownership.ThreadOwnership threadOwnership)
+	{
+		AnalysisNode[] sequence = Playout.get().getSequence(parameters.maxMoves);
 		sequence[0] = root;
+		// the moves leading to the nodes of the sequence
+		int[] moves = Playout.get().getPath(parameters.maxMoves);
+		moves[0] = root.getMoveIndex();
+		LightGoban board = null;
+		if (parameters.lightTree)
+			board = Playout.get().getTreeBoard(getRootBoard(root));
 
+		SearchMetrics.ThreadMetrics threadMetrics = SearchMetrics.get();
+		long time = System.nanoTime();
 		int i = 0;
-		while (sequence[i].children != null) {
-			sequence[i + 1] = sequence[i].selectRandomUCTMove();
-			i++;
-			// logger.info("sequence: i=" + i + ": " + sequence[i].move);
-			if (i > 1 && sequence[i].getMove() == null
-			                && sequence[i - 1].getMove() == null)
-				break;
+		boolean updated = false;
+		try {
+			while (sequence[i].children != null) {
+				AnalysisNode node = sequence[i];
+				widen(node, board, allowedChildren(node.getVisits()));
+				AnalysisNode next = node.selectRandomUCTMove(sequence, i);
+				if (next == null) {
+					// all moves are ko captures, add the remaining candidates
+					widen(node, board, Integer.MAX_VALUE);
+					next = node.selectRandomUCTMove(sequence, i);
+				}
+				sequence[i + 1] = next;
+				moves[i + 1] = node.getChildMoveIndex(next);
+				i++;
+				sequence[i].addVirtualLoss();
+				if (board != null)
+					board.make(moves[i], LightGoban.toByte(sequence[i - 1].movingColor));
+				// logger.info("sequence: i=" + i + ": " + sequence[i].move);
+				if (i > 1 && moves[i] == LightGoban.NONE && moves[i - 1] == LightGoban.NONE)
+					break;
+			}
+			long now = System.nanoTime();
+			threadMetrics.selectionNanos += now - time;
+			threadMetrics.depth(i);
+			time = now;
+			if (i == 0 || !isTreeFull())
+				createNode(sequence[i], board);
+			now = System.nanoTime();
+			threadMetrics.expansionNanos += now - time;
+			// from here on evaluateLeaf removes the virtual loss, even if it fails
+			updated = true;
+			evaluateLeaf(sequence, moves, i, board, threadOwnership, threadMetrics, now);
+		} finally {
+			if (board != null) {
+				while (board.getDepth() > 0)
+					board.unmake();
+			}
+			if (!updated)
+				removeVirtualLoss(sequence, i);
+			Playout.clearSequence(sequence);
 		}
-		createNode(sequence[i]);
+	}
 
+	/**
+	 * Score the leaf <code>sequence[i]</code> and back up the result. The
+	 * virtual loss of the sequence is removed exactly once, by the first
+	 * back up or, if that isn't reached, when an exception is thrown.
+	 * 
+	 * @param moves
+	 *            the moves leading to the nodes of the sequence.
+	 * @param time
+	 *            the start of the playout in nanoseconds, for the metrics.
+	 */
+	private void evaluateLeaf(AnalysisNode[] sequence, int[] moves, int i, LightGoban board,
+	                          Ownership.ThreadOwnership threadOwnership,
+	                          SearchMetrics.ThreadMetrics threadMetrics, long time)
+	{
+		AnalysisNode node = sequence[i];
+		boolean pass = moves[i] == LightGoban.NONE;
 		double score;
-		double value;
-		if (i > 1 && sequence[i].getMove() == null &&
-		                sequence[i - 1].getMove() == null) {
-			// logger.info("end node reached");
-			score = sequence[i].evaluateByScoring(territory);
-		} else {
-			score = sequence[i].evaluateByMC(sequence, i, territory);
+		int playoutMoves = 0;
+		boolean playout = false;
+		boolean end = false;
+		List<Future<Double>> leafPlayouts = null;
+		boolean backedUp = false;
+		try {
+			SearchEvents.PlayoutEvent playoutEvent = SearchEvents.playout();
+			if (i > 1 && pass && moves[i - 1] == LightGoban.NONE) {
+				// logger.info("end node reached");
+				end = true;
+				if (board != null) {
+					SearchEvents.ScoringEvent scoringEvent = SearchEvents.scoring();
+					score = board.areaScore(threadOwnership != null ? threadOwnership.owner : null) - node.komi;
+					if (scoringEvent != null)
+						scoringEvent.finish(node.moveNo, node.boardSize);
+					if (threadOwnership != null)
+						threadOwnership.record(score);
+				}
+				else
+					score = node.evaluateByScoring(threadOwnership);
+			} else if (board != null && parameters.lightPlayout) {
+				if (playoutsPerSimulation() > 1)
+					leafPlayouts = startLeafPlayouts(board, node, pass, threadOwnership != null);
+				score = Playout.get().run(board, node.movingColor, pass ? 1 : 0,
+				                          node.moveNo, node.komi, threadOwnership);
+				playout = true;
+				playoutMoves = Playout.get().getNumMoves();
+			} else {
+				if (board != null)
+					score = node.evaluateByMC(board, pass, sequence, i, threadOwnership);
+				else
+					score = node.evaluateByMC(sequence, i, pass, threadOwnership);
+				playout = parameters.lightPlayout;
+				playoutMoves = playout ? Playout.get().getNumMoves() : sequenceLength(sequence, i);
+			}
+			threadMetrics.playout(playoutMoves);
+			long now = System.nanoTime();
+			threadMetrics.playoutNanos += now - time;
+			if (playoutEvent != null && !end)
+				playoutEvent.finish(i, playoutMoves, playoutsPerSimulation(), node.boardSize);
+
+			SearchEvents.BackupEvent backupEvent = SearchEvents.backup();
+			double value = backUp(sequence, i, score, true);
+			backedUp = true;
+			if (parameters.raveEquivalence > 0)
+				updateRave(sequence, moves, i, value, playout ? Playout.get() : null);
+
+			if (leafPlayouts != null) {
+				for (Future<Double> leafPlayout : leafPlayouts) {
+					try {
+						backUp(sequence, i, leafPlayout.get(), false);
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			}
+			else if (end) {
+				// the score of an end node is exact, count it for each playout
+				for (int j = 1; j < playoutsPerSimulation(); j++)
+					backUp(sequence, i, score, false);
+			}
+			threadMetrics.backupNanos += System.nanoTime() - now;
+			if (backupEvent != null)
+				backupEvent.finish(i, playoutsPerSimulation(), node.boardSize);
+		} finally {
+			// the leaf playouts read board, which is taken back by the caller
+			if (leafPlayouts != null)
+				awaitLeafPlayouts(leafPlayouts);
+			if (!backedUp)
+				removeVirtualLoss(sequence, i);
+		}
+	}
+
+	/**
+	 * Get the number of moves a playout by
+	 * {@link AnalysisNode#evaluateByMC} added to <code>sequence</code> after
+	 * the leaf <code>sequence[i]</code>.
+	 */
+	private static int sequenceLength(AnalysisNode[] sequence, int i)
+	{
+		int n = i + 1;
+		while (n < sequence.length && sequence[n] != null)
+			n++;
+		return n - i - 1;
+	}
+
+	/**
+	 * Start the additional playouts from a leaf for {@link Parallelism#LEAF}.
+	 * They only read <code>board</code>, which must not be changed until they
+	 * are done, see {@link #awaitLeafPlayouts}. The owners are counted by
+	 * the threads running the playouts. If {@link EvaluatorParameters#seed}
+	 * is set, each playout is seeded by the searching thread, so the search
+	 * doesn't depend on which thread runs which playout.
+	 */
+	private List<Future<Double>> startLeafPlayouts(final LightGoban board, final AnalysisNode node,
+	                                               final boolean pass, final boolean countOwnership)
+	{
+		List<Future<Double>> leafPlayouts = new ArrayList<Future<Double>>();
+		for (int j = 1; j < playoutsPerSimulation(); j++) {
+			final long seed = parameters.seed != 0 ? FastRandom.get().nextLong() : 0;
+			leafPlayouts.add(getLeafExecutor().submit(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception
+				{
+					if (seed != 0)
+						FastRandom.get().setSeed(seed);
+					return Playout.get().run(board, node.movingColor, pass ? 1 : 0,
+					                         node.moveNo, node.komi, countOwnership ? ownership.attach() : null);
+				}
+			}));
 		}
+		return leafPlayouts;
+	}
+
+	/**
+	 * Wait until the leaf playouts are done or cancelled. The results of
+	 * playouts which are not used any more are dropped.
+	 */
+	private static void awaitLeafPlayouts(List<Future<Double>> leafPlayouts)
+	{
+		boolean interrupted = false;
+		for (Future<Double> leafPlayout : leafPlayouts) {
+			if (leafPlayout.cancel(false))
+				continue;
+			while (true) {
+				try {
+					leafPlayout.get();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				} catch (ExecutionException ex) {
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
 
+	/**
+	 * Back up the score of a simulation ending in <code>sequence[i]</code>.
+	 * 
+	 * @return the value for the player who moved into the leaf.
+	 */
+	private double backUp(AnalysisNode[] sequence, int i, double score, boolean removeVirtualLoss)
+	{
 		if (sequence[i].movingColor == BoardType.BLACK)
 			score = -score;
 
@@ -338,11 +1443,63 @@ public class Evaluator
 		 */
 		// Sigmoid exp(x)/(1+exp(x))
 		double exp = Math.exp(parameters.steepness * score);
-		value = exp / (1 + exp);
+		double value = exp / (1 + exp);
 
 		// logger.info("score=" + score + ", value=" + value);
-		updateValues(sequence, i, value, score);
+		updateValues(sequence, i, value, score, removeVirtualLoss);
+		return value;
+	}
 
+	/**
+	 * Update the all-moves-as-first statistics. For each node of the
+	 * sequence, every child whose move was played first by the same player
+	 * later in the simulation, in the tree or in the playout, gets the value
+	 * of the simulation for that player.
+	 * 
+	 * @param moves
+	 *            the moves leading to the nodes of the sequence in the tree.
+	 * @param playout
+	 *            the playout which followed the sequence, or null if the
+	 *            moves of the playout were added to <code>sequence</code> by
+	 *            {@link AnalysisNode#evaluateByMC}.
+	 */
+	private void updateRave(AnalysisNode[] sequence, int[] moves, int n, double value, Playout playout)
+	{
+		int numPoints = sequence[0].boardSize * sequence[0].boardSize;
+		byte[] first = Playout.get().getFirstColors(numPoints);
+		if (playout != null) {
+			for (int m = playout.getNumMoves() - 1; m >= 0; m--) {
+				int p = playout.getMove(m);
+				if (p != LightGoban.NONE)
+					first[p] = playout.getMoveColor(m);
+			}
+		}
+		else {
+			for (int m = n + sequenceLength(sequence, n); m > n; m--) {
+				int p = sequence[m].getMoveIndex();
+				if (p != LightGoban.NONE)
+					first[p] = LightGoban.toByte(sequence[m - 1].movingColor);
+			}
+		}
+
+		// value is the value of sequence[j + 1], the children of sequence[j]
+		// are compared to it
+		for (int j = n - 1; j >= 0; j--) {
+			byte color = LightGoban.toByte(sequence[j].movingColor);
+			int p = moves[j + 1];
+			if (p != LightGoban.NONE)
+				first[p] = color;
+
+			Set<AnalysisNode> children = sequence[j].children;
+			if (children != null) {
+				for (AnalysisNode child : children) {
+					int q = sequence[j].getChildMoveIndex(child);
+					if (q != LightGoban.NONE && first[q] == color)
+						child.updateRave(value);
+				}
+			}
+			value = 1 - value;
+		}
 	}
 
 	private void fireDone(AnalysisNode root, int numSimulations)
@@ -361,6 +1518,17 @@ public class Evaluator
 		}
 	}
 
+	/**
+	 * Stop the running search, e.g. when pondering. {@link #evaluate} returns
+	 * as soon as the simulations already started are finished, and the
+	 * statistics collected so far are kept in the tree.
+	 */
+	public void stop()
+	{
+		stopRequested = true;
+		stopSearch = true;
+	}
+
 	public ExecutorService getExecutor()
 	{
 		if (executor == null)
@@ -368,24 +1536,48 @@ public class Evaluator
 		return executor;
 	}
 
+	/**
+	 * Get the threads running the additional playouts of
+	 * {@link Parallelism#LEAF}.
+	 */
+	private synchronized ExecutorService getLeafExecutor()
+	{
+		if (leafExecutor == null)
+			leafExecutor = Executors.newFixedThreadPool(parameters.numThreads);
+		return leafExecutor;
+	}
+
 	public void setParameters(EvaluatorParameters parameters)
 	{
 		Evaluator.parameters = parameters;
 	}
 
-	protected void updateValues(AnalysisNode[] sequence, int n, double value, double score)
+	/**
+	 * Back up the result of a simulation. The statistics of the nodes are
+	 * updated atomically, so no lock is needed. The virtual loss added while
+	 * descending is removed again, unless <code>removeVirtualLoss</code> is
+	 * false because several playouts share one descent.
+	 */
+	protected void updateValues(AnalysisNode[] sequence, int n, double value, double score, boolean removeVirtualLoss)
 	{
-		synchronized (Evaluator.class) {
-			for (int i = n; i >= 0; i--) {
-				sequence[i].update(value, score);
+		for (int i = n; i >= 0; i--) {
+			sequence[i].update(value, score);
+			if (i > 0 && removeVirtualLoss)
+				sequence[i].removeVirtualLoss();
 
-				/*
-				 * if (i==1) { logger.info("level 1 update: value=" + value +
-				 * ", score=" + score + sequence[1]); }
-				 */
-				value = 1 - value;
-				score = -score;
-			}
+			/*
+			 * if (i==1) { logger.info("level 1 update: value=" + value +
+			 * ", score=" + score + sequence[1]); }
+			 */
+			value = 1 - value;
+			score = -score;
+		}
+	}
+
+	private void removeVirtualLoss(AnalysisNode[] sequence, int n)
+	{
+		for (int i = n; i > 0; i--) {
+			sequence[i].removeVirtualLoss();
 		}
 	}
 }
\ No newline at end of file
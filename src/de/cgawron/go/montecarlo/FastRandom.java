@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A xorshift64* random number generator. Unlike {@link java.util.Random} it
+ * is not synchronized, so each thread uses its own instance (see
+ * {@link #get()}).
+ *
+ * @author Christian Gawron
+ */
+final class FastRandom
+{
+	/** Distinguishes the default seeds of threads started at the same time. */
+	private static final AtomicLong seedUniquifier = new AtomicLong(System.nanoTime());
+
+	private static final ThreadLocal<FastRandom> randoms = new ThreadLocal<FastRandom>() {
+		@Override
+		protected FastRandom initialValue()
+		{
+			return new FastRandom(seedUniquifier.addAndGet(0x9e3779b97f4a7c15L) ^ System.nanoTime());
+		}
+	};
+
+	/**
+	 * Get the generator of the current thread.
+	 */
+	static FastRandom get()
+	{
+		return randoms.get();
+	}
+
+	private long state;
+
+	FastRandom(long seed)
+	{
+		setSeed(seed);
+	}
+
+	/**
+	 * Restart the sequence. Similar seeds give unrelated sequences.
+	 */
+	void setSeed(long seed)
+	{
+		state = Zobrist.mix(seed);
+		// the state must not be 0
+		if (state == 0)
+			state = 0x9e3779b97f4a7c15L;
+	}
+
+	long nextLong()
+	{
+		long x = state;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		state = x;
+		return x * 0x2545f4914f6cdd1dL;
+	}
+
+	/**
+	 * Get a value uniformly distributed in <code>[0, 1)</code>.
+	 */
+	double nextDouble()
+	{
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Get a value uniformly distributed in <code>[0, n)</code>.
+	 */
+	int nextInt(int n)
+	{
+		return (int) ((nextLong() >>> 33) * n >>> 31);
+	}
+}
@@ -0,0 +1,1087 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.util.Arrays;
+
+import de.cgawron.go.AbstractGoban;
+import de.cgawron.go.Goban;
+import de.cgawron.go.Point;
+import de.cgawron.go.Symmetry;
+
+/**
+ * A lightweight, mutable goban used for random playouts. In contrast to
+ * {@link AnalysisGoban} it does not know about eyes or groups and uses only
+ * primitive arrays, so playing a move does not allocate any objects.
+ *
+ * Points are addressed by their index <code>x * boardSize + y</code>, the same
+ * layout as used by {@link AnalysisGoban}. Chains are kept as circular lists of
+ * stones; for each chain the number of pseudo liberties (adjacent
+ * stone/empty pairs) as well as the sum and the sum of squares of the liberty
+ * indices is maintained, which is sufficient to detect captures and atari in
+ * constant time.
+ *
+ * Moves played with {@link #make} are journaled and can be taken back exactly
+ * by {@link #unmake}, so the analysis tree can be walked on a single board.
+ *
+ * @author Christian Gawron
+ */
+public class LightGoban extends AbstractGoban implements PlayoutBoard
+{
+	static final byte EMPTY = 0;
+	static final byte BLACK = 1;
+	static final byte WHITE = 2;
+
+	/** No point, e.g. no ko or no neighbor. */
+	static final int NONE = -1;
+
+	private static final int[][] NEIGHBORS = new int[Zobrist.MAX_SIZE + 1][];
+	private static final int[][] DIAGONALS = new int[Zobrist.MAX_SIZE + 1][];
+	private static final int[][] AROUND = new int[Zobrist.MAX_SIZE + 1][];
+
+	/*
+	 * The tables are built during class initialization, so they are safely
+	 * published to every thread that uses a board.
+	 */
+	static {
+		for (int size = 1; size <= Zobrist.MAX_SIZE; size++) {
+			NEIGHBORS[size] = createNeighborTable(size);
+			DIAGONALS[size] = createDiagonalTable(size);
+			AROUND[size] = createAroundTable(size);
+		}
+	}
+
+	int numPoints;
+	byte[] color;
+	int[] chain;
+	int[] next;
+	int[] chainSize;
+	int[] pseudoLiberties;
+	int[] libertySum;
+	int[] libertySumSquares;
+	int[] neighbors;
+	int[] diagonals;
+	int[] around;
+
+	/** The 3x3 pattern code of each point, see {@link PatternTable}. */
+	int[] pattern;
+
+	/** The empty points, kept in no particular order. */
+	int[] empty;
+	int[] emptyIndex;
+	int numEmpty;
+
+	/** The point which may not be played because of a simple ko. */
+	int ko = NONE;
+
+	/** The 64 bit Zobrist key of the position, see {@link Zobrist}. */
+	long key;
+
+	/*
+	 * The undo journal. Each write to one of the arrays while a move made by
+	 * make() is active is recorded as (array, index) and the old value. The
+	 * scalar state is saved per move in a frame.
+	 */
+	private static final int COLOR = 0;
+	private static final int CHAIN = 1;
+	private static final int NEXT = 2;
+	private static final int CHAIN_SIZE = 3;
+	private static final int PSEUDO_LIBERTIES = 4;
+	private static final int LIBERTY_SUM = 5;
+	private static final int LIBERTY_SUM_SQUARES = 6;
+	private static final int EMPTY_POINTS = 7;
+	private static final int EMPTY_INDEX = 8;
+
+	private int[] journal = new int[0];
+	private int journalSize;
+	private int numFrames;
+	private int[] frameJournal = new int[0];
+	private int[] frameKo = new int[0];
+	private int[] frameNumEmpty = new int[0];
+	private int[] frameBlackCaptured = new int[0];
+	private int[] frameWhiteCaptured = new int[0];
+	private long[] frameKey = new long[0];
+
+	private int[] mark;
+	private int[] stack;
+	private int stamp;
+
+	/*
+	 * The points whose suitability may have changed since the last call of
+	 * changedPoints(). A point is in the list iff changedMark[p] ==
+	 * changedStamp, chains whose liberties were already added during the
+	 * current move have libertiesMark[root] == libertiesStamp.
+	 */
+	private int[] changed;
+	private int[] changedMark;
+	private int changedStamp = 1;
+	private int numChanged;
+	private int[] libertiesMark;
+	private int libertiesStamp;
+	private final int[] liberties = new int[4];
+
+	public LightGoban()
+	{
+	}
+
+	public LightGoban(int boardSize)
+	{
+		setBoardSize(boardSize);
+	}
+
+	public LightGoban(Goban goban)
+	{
+		copy(goban);
+	}
+
+	static final byte toByte(BoardType color)
+	{
+		switch (color) {
+		case BLACK:
+			return BLACK;
+		case WHITE:
+			return WHITE;
+		default:
+			return EMPTY;
+		}
+	}
+
+	static final BoardType toBoardType(byte color)
+	{
+		switch (color) {
+		case BLACK:
+			return BoardType.BLACK;
+		case WHITE:
+			return BoardType.WHITE;
+		default:
+			return BoardType.EMPTY;
+		}
+	}
+
+	static final byte opposite(byte color)
+	{
+		return (byte) (3 - color);
+	}
+
+	/**
+	 * Get the neighbor table for a board size. The table contains four entries
+	 * per point, {@link #NONE} is used for neighbors outside the board.
+	 */
+	static int[] neighborTable(int size)
+	{
+		return NEIGHBORS[size];
+	}
+
+	private static int[] createNeighborTable(int size)
+	{
+		int[] table = new int[4 * size * size];
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				int i = 4 * (x * size + y);
+				table[i] = x + 1 < size ? (x + 1) * size + y : NONE;
+				table[i + 1] = y + 1 < size ? x * size + y + 1 : NONE;
+				table[i + 2] = x > 0 ? (x - 1) * size + y : NONE;
+				table[i + 3] = y > 0 ? x * size + y - 1 : NONE;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Get the table of diagonal neighbors for a board size.
+	 *
+	 * @see #neighborTable
+	 */
+	static int[] diagonalTable(int size)
+	{
+		return DIAGONALS[size];
+	}
+
+	private static int[] createDiagonalTable(int size)
+	{
+		int[] table = new int[4 * size * size];
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				int i = 4 * (x * size + y);
+				table[i] = x + 1 < size && y + 1 < size ? (x + 1) * size + y + 1 : NONE;
+				table[i + 1] = x > 0 && y + 1 < size ? (x - 1) * size + y + 1 : NONE;
+				table[i + 2] = x > 0 && y > 0 ? (x - 1) * size + y - 1 : NONE;
+				table[i + 3] = x + 1 < size && y > 0 ? (x + 1) * size + y - 1 : NONE;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Get the table of the eight points surrounding each point, in the order
+	 * of {@link PatternTable#OFFSETS}.
+	 *
+	 * @see #neighborTable
+	 */
+	static int[] aroundTable(int size)
+	{
+		return AROUND[size];
+	}
+
+	private static int[] createAroundTable(int size)
+	{
+		int[] table = new int[8 * size * size];
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				for (int k = 0; k < 8; k++) {
+					int u = x + PatternTable.OFFSETS[k][0];
+					int v = y + PatternTable.OFFSETS[k][1];
+					boolean onBoard = u >= 0 && u < size && v >= 0 && v < size;
+					table[8 * (x * size + y) + k] = onBoard ? u * size + v : NONE;
+				}
+			}
+		}
+		return table;
+	}
+
+	@Override
+	public void setBoardSize(int size)
+	{
+		if (size != boardSize || color == null) {
+			boardSize = size;
+			numPoints = size * size;
+			color = new byte[numPoints];
+			chain = new int[numPoints];
+			next = new int[numPoints];
+			chainSize = new int[numPoints];
+			pseudoLiberties = new int[numPoints];
+			libertySum = new int[numPoints];
+			libertySumSquares = new int[numPoints];
+			empty = new int[numPoints];
+			emptyIndex = new int[numPoints];
+			mark = new int[numPoints];
+			stack = new int[numPoints];
+			changed = new int[numPoints];
+			changedMark = new int[numPoints];
+			libertiesMark = new int[numPoints];
+			pattern = new int[numPoints];
+			neighbors = neighborTable(size);
+			diagonals = diagonalTable(size);
+			around = aroundTable(size);
+		}
+		clear();
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill(color, EMPTY);
+		for (int p = 0; p < numPoints; p++) {
+			empty[p] = p;
+			emptyIndex[p] = p;
+			pattern[p] = 0;
+			for (int k = 0; k < 8; k++) {
+				if (around[8 * p + k] == NONE)
+					pattern[p] |= PatternTable.OFF_BOARD << 2 * k;
+			}
+		}
+		numEmpty = numPoints;
+		ko = NONE;
+		key = 0;
+		journalSize = 0;
+		numFrames = 0;
+		lastMove = null;
+		blackCaptured = 0;
+		whiteCaptured = 0;
+		removed.clear();
+		changeAll();
+	}
+
+	@Override
+	public void copy(Goban goban)
+	{
+		if (goban instanceof LightGoban) {
+			LightGoban other = (LightGoban) goban;
+			if (other.boardSize != boardSize || color == null)
+				setBoardSize(other.boardSize);
+			System.arraycopy(other.color, 0, color, 0, numPoints);
+			System.arraycopy(other.chain, 0, chain, 0, numPoints);
+			System.arraycopy(other.next, 0, next, 0, numPoints);
+			System.arraycopy(other.chainSize, 0, chainSize, 0, numPoints);
+			System.arraycopy(other.pseudoLiberties, 0, pseudoLiberties, 0, numPoints);
+			System.arraycopy(other.libertySum, 0, libertySum, 0, numPoints);
+			System.arraycopy(other.libertySumSquares, 0, libertySumSquares, 0, numPoints);
+			System.arraycopy(other.empty, 0, empty, 0, numPoints);
+			System.arraycopy(other.emptyIndex, 0, emptyIndex, 0, numPoints);
+			System.arraycopy(other.pattern, 0, pattern, 0, numPoints);
+			numEmpty = other.numEmpty;
+			ko = other.ko;
+			key = other.key;
+			journalSize = 0;
+			numFrames = 0;
+			lastMove = other.lastMove;
+			blackCaptured = other.blackCaptured;
+			whiteCaptured = other.whiteCaptured;
+			changeAll();
+		}
+		else {
+			setBoardSize(goban.getBoardSize());
+			for (int x = 0; x < boardSize; x++) {
+				for (int y = 0; y < boardSize; y++) {
+					byte c = toByte(goban.getStone(x, y));
+					if (c != EMPTY)
+						addStone(x * boardSize + y, c);
+				}
+			}
+			lastMove = goban.getLastMove();
+			blackCaptured = goban.getBlackCaptured();
+			whiteCaptured = goban.getWhiteCaptured();
+		}
+	}
+
+	@Override
+	public LightGoban clone()
+	{
+		LightGoban goban = new LightGoban();
+		goban.copy(this);
+		return goban;
+	}
+
+	@Override
+	public Goban newInstance()
+	{
+		return new LightGoban(boardSize);
+	}
+
+	@Override
+	public BoardType getStone(int x, int y)
+	{
+		return toBoardType(color[x * boardSize + y]);
+	}
+
+	@Override
+	public void putStone(int x, int y, BoardType c)
+	{
+		int p = x * boardSize + y;
+		if (color[p] != EMPTY)
+			throw new IllegalArgumentException("putStone on occupied point " + new Point(x, y));
+		addStone(p, toByte(c));
+	}
+
+	@Override
+	public boolean move(int x, int y, BoardType c)
+	{
+		int p = x * boardSize + y;
+		byte stone = toByte(c);
+		if (!isLegal(p, stone))
+			return false;
+		play(p, stone);
+		lastMove = new Point(x, y);
+		return true;
+	}
+
+	/**
+	 * Check if <code>color</code> may play at <code>p</code>, i.e. the point
+	 * is empty, not an illegal ko recapture and the move is not suicide.
+	 */
+	final boolean isLegal(int p, byte color)
+	{
+		if (this.color[p] != EMPTY || p == ko)
+			return false;
+
+		byte enemy = opposite(color);
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q == NONE)
+				continue;
+			byte c = this.color[q];
+			if (c == EMPTY)
+				return true;
+			boolean atari = isAtari(chain[q]);
+			if (c == enemy && atari)
+				return true;
+			if (c == color && !atari)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if <code>p</code> is an eye of <code>color</code>. All neighbors
+	 * have to be stones of that color, and at most one diagonal point (none at
+	 * the edge) may be occupied by the opponent.
+	 */
+	final boolean isEye(int p, byte color)
+	{
+		int onBoard = 0;
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q == NONE)
+				continue;
+			if (this.color[q] != color)
+				return false;
+			onBoard++;
+		}
+
+		byte enemy = opposite(color);
+		int enemyDiagonals = 0;
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = diagonals[i];
+			if (q != NONE && this.color[q] == enemy)
+				enemyDiagonals++;
+		}
+		return enemyDiagonals < (onBoard == 4 ? 2 : 1);
+	}
+
+	/**
+	 * Check if the chain represented by <code>root</code> has exactly one
+	 * liberty. If all pseudo liberties are the same point, the square of the
+	 * liberty sum equals the number of pseudo liberties times the sum of
+	 * squares.
+	 */
+	final boolean isAtari(int root)
+	{
+		int n = pseudoLiberties[root];
+		long sum = libertySum[root];
+		return n > 0 && (long) n * libertySumSquares[root] == sum * sum;
+	}
+
+	/**
+	 * Get the only liberty of a chain in atari.
+	 */
+	final int atariLiberty(int root)
+	{
+		return libertySum[root] / pseudoLiberties[root] - 1;
+	}
+
+	/**
+	 * Count the liberties the chain containing a stone of <code>color</code>
+	 * played at <code>p</code> would have, but stop counting at
+	 * <code>max</code> (which must not exceed 4).
+	 */
+	final int libertiesAfter(int p, byte color, int max)
+	{
+		int n = 0;
+		byte enemy = opposite(color);
+		for (int i = 4 * p; i < 4 * p + 4 && n < max; i++) {
+			int q = neighbors[i];
+			if (q == NONE)
+				continue;
+			byte c = this.color[q];
+			if (c == EMPTY || (c == enemy && isAtari(chain[q])))
+				n = addLiberty(n, q);
+		}
+		for (int i = 4 * p; i < 4 * p + 4 && n < max; i++) {
+			int q = neighbors[i];
+			if (q == NONE || this.color[q] != color)
+				continue;
+			int s = q;
+			do {
+				for (int j = 4 * s; j < 4 * s + 4 && n < max; j++) {
+					int r = neighbors[j];
+					if (r != NONE && r != p && this.color[r] == EMPTY)
+						n = addLiberty(n, r);
+				}
+				s = next[s];
+			} while (s != q && n < max);
+		}
+		return n;
+	}
+
+	@Override
+	public int emptyPoints(int[] points)
+	{
+		System.arraycopy(empty, 0, points, 0, numEmpty);
+		return numEmpty;
+	}
+
+	@Override
+	public double suitability(int p, byte color)
+	{
+		if (!isLegal(p, color))
+			return 0;
+
+		byte enemy = opposite(color);
+		int captured = 0;
+		int atari = 0;
+		int size = 1;
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q == NONE || this.color[q] == EMPTY || isSeen(p, i, chain[q]))
+				continue;
+			int root = chain[q];
+			if (this.color[q] == enemy) {
+				if (isAtari(root))
+					captured += chainSize[root];
+			}
+			else {
+				size += chainSize[root];
+				if (isAtari(root))
+					atari += chainSize[root];
+			}
+		}
+
+		// don't fill an eye
+		if (captured == 0 && isEye(p, color))
+			return 0;
+
+		return Playout.suitability(captured, atari, size, libertiesAfter(p, color, 2));
+	}
+
+	/**
+	 * Check if the chain <code>root</code> has already been seen at one of the
+	 * neighbors of <code>p</code> preceding the neighbor index <code>i</code>.
+	 */
+	private boolean isSeen(int p, int i, int root)
+	{
+		for (int j = 4 * p; j < i; j++) {
+			int q = neighbors[j];
+			if (q != NONE && color[q] != EMPTY && chain[q] == root)
+				return true;
+		}
+		return false;
+	}
+
+	private int addLiberty(int n, int p)
+	{
+		for (int i = 0; i < n; i++) {
+			if (liberties[i] == p)
+				return n;
+		}
+		liberties[n] = p;
+		return n + 1;
+	}
+
+	/**
+	 * Play a legal move. The caller has to make sure that the move is legal,
+	 * e.g. by calling {@link #isLegal}.
+	 *
+	 * @return the number of captured stones.
+	 */
+	public final int play(int p, byte color)
+	{
+		if (ko != NONE)
+			changed(ko);
+		ko = NONE;
+		libertiesStamp++;
+		addStone(p, color);
+		changedAround(p);
+
+		byte enemy = opposite(color);
+		int captured = 0;
+		int capturedStone = NONE;
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q != NONE && this.color[q] == enemy && pseudoLiberties[chain[q]] == 0) {
+				captured += removeChain(chain[q]);
+				capturedStone = q;
+			}
+		}
+
+		int root = chain[p];
+		changedLiberties(root);
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q != NONE && this.color[q] == enemy)
+				changedLiberties(chain[q]);
+		}
+
+		if (captured == 1 && chainSize[root] == 1 && isAtari(root)) {
+			ko = capturedStone;
+			changed(ko);
+		}
+
+		return captured;
+	}
+
+	/**
+	 * Pass. This only clears the ko point.
+	 */
+	public final void pass()
+	{
+		if (ko != NONE)
+			changed(ko);
+		ko = NONE;
+	}
+
+	/**
+	 * Store the points whose suitability may have changed since the last call
+	 * in <code>points</code> and start collecting anew. After a move, these
+	 * are the points next to the stones placed or removed, including the
+	 * diagonal neighbors, the liberties of all chains which gained or lost a
+	 * liberty, and the old and new ko point. After {@link #clear()} and
+	 * {@link #copy(Goban)} all points have changed.
+	 *
+	 * @return the number of changed points.
+	 */
+	@Override
+	public int changedPoints(int[] points)
+	{
+		int n = numChanged;
+		System.arraycopy(changed, 0, points, 0, n);
+		numChanged = 0;
+		changedStamp++;
+		return n;
+	}
+
+	private void changed(int p)
+	{
+		if (changedMark[p] != changedStamp) {
+			changedMark[p] = changedStamp;
+			changed[numChanged++] = p;
+		}
+	}
+
+	private void changeAll()
+	{
+		numChanged = 0;
+		changedStamp++;
+		for (int p = 0; p < numPoints; p++)
+			changed(p);
+	}
+
+	/**
+	 * Mark <code>p</code> and its direct and diagonal neighbors as changed.
+	 */
+	private void changedAround(int p)
+	{
+		changed(p);
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			if (neighbors[i] != NONE)
+				changed(neighbors[i]);
+			if (diagonals[i] != NONE)
+				changed(diagonals[i]);
+		}
+	}
+
+	/**
+	 * Mark the liberties of the chain <code>root</code> as changed, once per
+	 * move.
+	 */
+	private void changedLiberties(int root)
+	{
+		if (libertiesMark[root] == libertiesStamp)
+			return;
+		libertiesMark[root] = libertiesStamp;
+		int s = root;
+		do {
+			for (int i = 4 * s; i < 4 * s + 4; i++) {
+				int q = neighbors[i];
+				if (q != NONE && color[q] == EMPTY)
+					changed(q);
+			}
+			s = next[s];
+		} while (s != root);
+	}
+
+	/**
+	 * Place a stone and maintain chains and liberties, but don't capture.
+	 */
+	private void addStone(int p, byte c)
+	{
+		setColor(p, c);
+		key ^= Zobrist.key(p, toBoardType(c));
+		removeEmpty(p);
+		set(chain, CHAIN, p, p);
+		set(next, NEXT, p, p);
+		set(chainSize, CHAIN_SIZE, p, 1);
+		set(pseudoLiberties, PSEUDO_LIBERTIES, p, 0);
+		set(libertySum, LIBERTY_SUM, p, 0);
+		set(libertySumSquares, LIBERTY_SUM_SQUARES, p, 0);
+
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q == NONE)
+				continue;
+			if (color[q] == EMPTY)
+				addPseudoLiberty(p, q);
+			else
+				removePseudoLiberty(chain[q], p);
+		}
+
+		for (int i = 4 * p; i < 4 * p + 4; i++) {
+			int q = neighbors[i];
+			if (q != NONE && color[q] == c && chain[q] != chain[p])
+				join(chain[p], chain[q]);
+		}
+	}
+
+	private void join(int a, int b)
+	{
+		if (chainSize[a] < chainSize[b]) {
+			int t = a;
+			a = b;
+			b = t;
+		}
+
+		int s = b;
+		do {
+			set(chain, CHAIN, s, a);
+			s = next[s];
+		} while (s != b);
+
+		int t = next[a];
+		set(next, NEXT, a, next[b]);
+		set(next, NEXT, b, t);
+
+		set(chainSize, CHAIN_SIZE, a, chainSize[a] + chainSize[b]);
+		set(pseudoLiberties, PSEUDO_LIBERTIES, a, pseudoLiberties[a] + pseudoLiberties[b]);
+		set(libertySum, LIBERTY_SUM, a, libertySum[a] + libertySum[b]);
+		set(libertySumSquares, LIBERTY_SUM_SQUARES, a, libertySumSquares[a] + libertySumSquares[b]);
+	}
+
+	private int removeChain(int root)
+	{
+		byte c = color[root];
+		int s = root;
+		do {
+			setColor(s, EMPTY);
+			key ^= Zobrist.key(s, toBoardType(c));
+			addEmpty(s);
+			s = next[s];
+		} while (s != root);
+
+		do {
+			for (int i = 4 * s; i < 4 * s + 4; i++) {
+				int q = neighbors[i];
+				if (q != NONE && color[q] != EMPTY)
+					addPseudoLiberty(chain[q], s);
+			}
+			changedAround(s);
+			s = next[s];
+		} while (s != root);
+
+		do {
+			for (int i = 4 * s; i < 4 * s + 4; i++) {
+				int q = neighbors[i];
+				if (q != NONE && color[q] != EMPTY)
+					changedLiberties(chain[q]);
+			}
+			s = next[s];
+		} while (s != root);
+
+		int size = chainSize[root];
+		addCaptureStones(toBoardType(c), size);
+		return size;
+	}
+
+	private void addPseudoLiberty(int root, int p)
+	{
+		set(pseudoLiberties, PSEUDO_LIBERTIES, root, pseudoLiberties[root] + 1);
+		set(libertySum, LIBERTY_SUM, root, libertySum[root] + p + 1);
+		set(libertySumSquares, LIBERTY_SUM_SQUARES, root, libertySumSquares[root] + (p + 1) * (p + 1));
+	}
+
+	private void removePseudoLiberty(int root, int p)
+	{
+		set(pseudoLiberties, PSEUDO_LIBERTIES, root, pseudoLiberties[root] - 1);
+		set(libertySum, LIBERTY_SUM, root, libertySum[root] - (p + 1));
+		set(libertySumSquares, LIBERTY_SUM_SQUARES, root, libertySumSquares[root] - (p + 1) * (p + 1));
+	}
+
+	private void addEmpty(int p)
+	{
+		set(emptyIndex, EMPTY_INDEX, p, numEmpty);
+		set(empty, EMPTY_POINTS, numEmpty++, p);
+	}
+
+	private void removeEmpty(int p)
+	{
+		int i = emptyIndex[p];
+		int last = empty[--numEmpty];
+		set(empty, EMPTY_POINTS, i, last);
+		set(emptyIndex, EMPTY_INDEX, last, i);
+	}
+
+	private void setColor(int p, byte c)
+	{
+		if (numFrames > 0)
+			log(COLOR, p, color[p]);
+		updatePatterns(p, color[p], c);
+		color[p] = c;
+	}
+
+	/**
+	 * Update the pattern codes of the points around <code>p</code> when its
+	 * color changes from <code>from</code> to <code>to</code>. The field of
+	 * <code>p</code> in the code of the point at offset <code>7 - k</code> is
+	 * <code>k</code>.
+	 */
+	private void updatePatterns(int p, byte from, byte to)
+	{
+		int delta = from ^ to;
+		for (int k = 0; k < 8; k++) {
+			int q = around[8 * p + 7 - k];
+			if (q != NONE)
+				pattern[q] ^= delta << 2 * k;
+		}
+	}
+
+	@Override
+	public int pattern(int p)
+	{
+		return pattern[p];
+	}
+
+	private void set(int[] array, int code, int i, int value)
+	{
+		if (numFrames > 0)
+			log(code, i, array[i]);
+		array[i] = value;
+	}
+
+	private void log(int code, int i, int value)
+	{
+		if (journalSize + 2 > journal.length)
+			journal = Arrays.copyOf(journal, Math.max(256, 2 * journal.length));
+		journal[journalSize++] = code << 16 | i;
+		journal[journalSize++] = value;
+	}
+
+	/**
+	 * Play a legal move and record it, so it can be taken back by
+	 * {@link #unmake}.
+	 *
+	 * @param p
+	 *            the point to play or {@link #NONE} to pass.
+	 * @return the number of captured stones.
+	 */
+	final int make(int p, byte color)
+	{
+		if (numFrames == frameJournal.length) {
+			int n = Math.max(16, 2 * numFrames);
+			frameJournal = Arrays.copyOf(frameJournal, n);
+			frameKo = Arrays.copyOf(frameKo, n);
+			frameNumEmpty = Arrays.copyOf(frameNumEmpty, n);
+			frameBlackCaptured = Arrays.copyOf(frameBlackCaptured, n);
+			frameWhiteCaptured = Arrays.copyOf(frameWhiteCaptured, n);
+			frameKey = Arrays.copyOf(frameKey, n);
+		}
+		frameJournal[numFrames] = journalSize;
+		frameKo[numFrames] = ko;
+		frameNumEmpty[numFrames] = numEmpty;
+		frameBlackCaptured[numFrames] = blackCaptured;
+		frameWhiteCaptured[numFrames] = whiteCaptured;
+		frameKey[numFrames] = key;
+		numFrames++;
+
+		if (p == NONE) {
+			pass();
+			return 0;
+		}
+		else
+			return play(p, color);
+	}
+
+	/**
+	 * Take back the last move made by {@link #make}.
+	 */
+	final void unmake()
+	{
+		if (numFrames == 0)
+			throw new IllegalStateException("no move to take back");
+		numFrames--;
+		int start = frameJournal[numFrames];
+		while (journalSize > start) {
+			int value = journal[--journalSize];
+			int entry = journal[--journalSize];
+			int i = entry & 0xffff;
+			switch (entry >>> 16) {
+			case COLOR:
+				updatePatterns(i, color[i], (byte) value);
+				color[i] = (byte) value;
+				break;
+			case CHAIN:
+				chain[i] = value;
+				break;
+			case NEXT:
+				next[i] = value;
+				break;
+			case CHAIN_SIZE:
+				chainSize[i] = value;
+				break;
+			case PSEUDO_LIBERTIES:
+				pseudoLiberties[i] = value;
+				break;
+			case LIBERTY_SUM:
+				libertySum[i] = value;
+				break;
+			case LIBERTY_SUM_SQUARES:
+				libertySumSquares[i] = value;
+				break;
+			case EMPTY_POINTS:
+				empty[i] = value;
+				break;
+			case EMPTY_INDEX:
+				emptyIndex[i] = value;
+				break;
+			}
+		}
+		ko = frameKo[numFrames];
+		numEmpty = frameNumEmpty[numFrames];
+		blackCaptured = frameBlackCaptured[numFrames];
+		whiteCaptured = frameWhiteCaptured[numFrames];
+		key = frameKey[numFrames];
+	}
+
+	/**
+	 * Get the number of moves made by {@link #make} which have not been taken
+	 * back.
+	 */
+	final int getDepth()
+	{
+		return numFrames;
+	}
+
+	/**
+	 * Get the 64 bit Zobrist key of the position.
+	 *
+	 * @see AnalysisGoban#zobristKey()
+	 */
+	final long zobristKey()
+	{
+		return key;
+	}
+
+	/**
+	 * Calculate the area score, assuming all stones on the board are alive.
+	 * Empty regions count for a player if they touch only stones of this
+	 * player.
+	 *
+	 * @param territory
+	 *            if not null, +1 is added for each point owned by black, -1 for
+	 *            each point owned by white.
+	 * @return the area score, positive values are good for black.
+	 */
+	@Override
+	public int chineseScore(double[][] territory)
+	{
+		if (territory == null)
+			return areaScore(null);
+		int[] owner = new int[numPoints];
+		int score = areaScore(owner);
+		Ownership.addTo(territory, owner);
+		return score;
+	}
+
+	/**
+	 * Calculate the area score like {@link #chineseScore(double[][])}.
+	 *
+	 * @param owner
+	 *            if not null, the owner of each point is stored: 1 for black,
+	 *            -1 for white and 0 for neutral points.
+	 * @return the area score, positive values are good for black.
+	 */
+	@Override
+	public int areaScore(int[] owner)
+	{
+		int score = 0;
+		stamp++;
+		for (int p = 0; p < numPoints; p++) {
+			int v;
+			switch (color[p]) {
+			case BLACK:
+				score++;
+				v = 1;
+				break;
+
+			case WHITE:
+				score--;
+				v = -1;
+				break;
+
+			default:
+				if (mark[p] == stamp)
+					continue;
+				v = scoreEmpty(p, owner);
+				score += v;
+				continue;
+			}
+			if (owner != null)
+				owner[p] = v;
+		}
+		return score;
+	}
+
+	private int scoreEmpty(int start, int[] owner)
+	{
+		boolean touchBlack = false;
+		boolean touchWhite = false;
+		int size = 0;
+		stack[size++] = start;
+		mark[start] = stamp;
+		for (int k = 0; k < size; k++) {
+			int p = stack[k];
+			for (int i = 4 * p; i < 4 * p + 4; i++) {
+				int q = neighbors[i];
+				if (q == NONE)
+					continue;
+				switch (color[q]) {
+				case BLACK:
+					touchBlack = true;
+					break;
+				case WHITE:
+					touchWhite = true;
+					break;
+				default:
+					if (mark[q] != stamp) {
+						mark[q] = stamp;
+						stack[size++] = q;
+					}
+				}
+			}
+		}
+
+		int v;
+		if (touchBlack == touchWhite)
+			v = 0;
+		else if (touchBlack)
+			v = 1;
+		else
+			v = -1;
+
+		if (owner != null) {
+			for (int k = 0; k < size; k++)
+				owner[stack[k]] = v;
+		}
+		return v * size;
+	}
+
+	@Override
+	public Goban transform(Symmetry s)
+	{
+		Goban m = newInstance();
+		for (int p = 0; p < numPoints; p++) {
+			if (color[p] != EMPTY) {
+				Point pt = s.transform(p / boardSize, p % boardSize, boardSize);
+				m.putStone(pt, s.transform(toBoardType(color[p])));
+			}
+		}
+		return m;
+	}
+
+	@Override
+	public int zobristHash()
+	{
+		int hash = 0;
+		int n = 0;
+		for (int p = 0; p < numPoints; p++) {
+			if (color[p] != EMPTY) {
+				n++;
+				if (color[p] == BLACK)
+					hash += zobrist[p];
+				else
+					hash -= zobrist[p];
+			}
+		}
+		return (hash & 0x01ffffff) | ((n & 0xfe) << (32 - 7));
+	}
+}
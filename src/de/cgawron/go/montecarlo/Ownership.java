@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The owners of the points at the end of the playouts of the searches of an
+ * {@link Evaluator}, see {@link Evaluator#getOwnership()}. The ownership and
+ * criticality maps can be read while a search is running.
+ *
+ * Like {@link SearchMetrics}, each thread counts in a
+ * {@link ThreadOwnership} of its own, which only that thread writes, and the
+ * counts are added up when a map is requested. The maps are indexed by
+ * <code>[x][y]</code>.
+ *
+ * @author Christian Gawron
+ */
+public class Ownership
+{
+	/**
+	 * The counts of a thread. A playout is scored into {@link #owner} and
+	 * then {@link #record(double) recorded}. The playout counter is volatile
+	 * and written last, so a reader who reads it first sees the counts of
+	 * at least that many playouts.
+	 */
+	public static class ThreadOwnership
+	{
+		/** The owner of each point of the scored position: 1, -1 or 0. */
+		final int[] owner;
+
+		/** The playouts in which black respectively white owned a point. */
+		private final int[] black;
+		private final int[] white;
+
+		/** The playouts in which the winner owned a point. */
+		private final int[] winner;
+
+		private int blackWins;
+		private volatile int playouts;
+
+		private Ownership search;
+		private int generation;
+
+		ThreadOwnership(int numPoints)
+		{
+			owner = new int[numPoints];
+			black = new int[numPoints];
+			white = new int[numPoints];
+			winner = new int[numPoints];
+		}
+
+		/**
+		 * Count the owners in {@link #owner}.
+		 *
+		 * @param score
+		 *            the final score including komi, positive values are
+		 *            good for black.
+		 */
+		void record(double score)
+		{
+			boolean blackWin = score > 0;
+			for (int p = 0; p < owner.length; p++) {
+				int v = owner[p];
+				if (v > 0) {
+					black[p]++;
+					if (blackWin)
+						winner[p]++;
+				}
+				else if (v < 0) {
+					white[p]++;
+					if (!blackWin)
+						winner[p]++;
+				}
+			}
+			if (blackWin)
+				blackWins++;
+			playouts++;
+		}
+	}
+
+	private static final ThreadLocal<ThreadOwnership> THREAD_OWNERSHIP = new ThreadLocal<ThreadOwnership>();
+
+	private final List<ThreadOwnership> threads = new CopyOnWriteArrayList<ThreadOwnership>();
+	private volatile int boardSize;
+	private volatile int generation;
+
+	/**
+	 * Start counting a search.
+	 */
+	void start(int boardSize)
+	{
+		threads.clear();
+		this.boardSize = boardSize;
+		generation++;
+	}
+
+	/**
+	 * Get the counts of the current thread for the running search. The
+	 * first call of a thread in a search resets its counts.
+	 */
+	ThreadOwnership attach()
+	{
+		int numPoints = boardSize * boardSize;
+		ThreadOwnership counts = THREAD_OWNERSHIP.get();
+		if (counts != null && counts.search == this && counts.generation == generation)
+			return counts;
+
+		if (counts == null || counts.owner.length != numPoints)
+			counts = new ThreadOwnership(numPoints);
+		else {
+			Arrays.fill(counts.black, 0);
+			Arrays.fill(counts.white, 0);
+			Arrays.fill(counts.winner, 0);
+			counts.blackWins = 0;
+			counts.playouts = 0;
+		}
+		counts.search = this;
+		counts.generation = generation;
+		THREAD_OWNERSHIP.set(counts);
+		threads.add(counts);
+		return counts;
+	}
+
+	public int getBoardSize()
+	{
+		return boardSize;
+	}
+
+	/**
+	 * Get the number of playouts counted so far.
+	 */
+	public int getPlayouts()
+	{
+		int n = 0;
+		for (ThreadOwnership counts : threads)
+			n += counts.playouts;
+		return n;
+	}
+
+	/**
+	 * Get the expected owner of each point, from 1 if black always owned it
+	 * to -1 if white always did. During a search, the counts may be a few
+	 * playouts ahead of the number of playouts read, so the values are
+	 * clipped.
+	 */
+	public double[][] getOwnership()
+	{
+		int size = boardSize;
+		int numPoints = size * size;
+		long playouts = 0;
+		long[] sum = new long[numPoints];
+		for (ThreadOwnership counts : threads) {
+			if (counts.owner.length != numPoints)
+				continue;
+			playouts += counts.playouts;
+			for (int p = 0; p < numPoints; p++)
+				sum[p] += counts.black[p] - counts.white[p];
+		}
+
+		double[][] ownership = new double[size][size];
+		if (playouts == 0)
+			return ownership;
+		for (int p = 0; p < numPoints; p++)
+			ownership[p / size][p % size] = Math.max(-1, Math.min(1, (double) sum[p] / playouts));
+		return ownership;
+	}
+
+	/**
+	 * Get the criticality of each point, the covariance of owning the point
+	 * and winning the game: the frequency with which the winner owned it less
+	 * the frequency expected if owning the point and winning were
+	 * independent. Points whose owner decides the game have a high
+	 * criticality.
+	 */
+	public double[][] getCriticality()
+	{
+		int size = boardSize;
+		int numPoints = size * size;
+		long playouts = 0;
+		long blackWins = 0;
+		long[] black = new long[numPoints];
+		long[] white = new long[numPoints];
+		long[] winner = new long[numPoints];
+		for (ThreadOwnership counts : threads) {
+			if (counts.owner.length != numPoints)
+				continue;
+			playouts += counts.playouts;
+			blackWins += counts.blackWins;
+			for (int p = 0; p < numPoints; p++) {
+				black[p] += counts.black[p];
+				white[p] += counts.white[p];
+				winner[p] += counts.winner[p];
+			}
+		}
+
+		double[][] criticality = new double[size][size];
+		if (playouts == 0)
+			return criticality;
+		double blackWin = (double) blackWins / playouts;
+		for (int p = 0; p < numPoints; p++) {
+			double expected = (double) black[p] / playouts * blackWin + (double) white[p] / playouts * (1 - blackWin);
+			criticality[p / size][p % size] = (double) winner[p] / playouts - expected;
+		}
+		return criticality;
+	}
+
+	/**
+	 * Add the owners of the points, indexed by point, to
+	 * <code>territory</code>.
+	 */
+	static void addTo(double[][] territory, int[] owner)
+	{
+		int boardSize = territory.length;
+		for (int p = 0; p < owner.length; p++)
+			territory[p / boardSize][p % boardSize] += owner[p];
+	}
+
+	/**
+	 * Format a map as a GTP response of the GoGui analyze type
+	 * <code>dboard</code>: one line per row, starting with the top row.
+	 */
+	public static String format(double[][] map)
+	{
+		int size = map.length;
+		StringBuilder sb = new StringBuilder();
+		for (int y = size - 1; y >= 0; y--) {
+			if (y < size - 1)
+				sb.append('\n');
+			for (int x = 0; x < size; x++) {
+				if (x > 0)
+					sb.append(' ');
+				sb.append(String.format(Locale.US, "%.2f", map[x][y]));
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+import de.cgawron.go.Point;
+import de.cgawron.go.Symmetry;
+
+/**
+ * A table of playout weights for the 3x3 neighborhoods of a move.
+ *
+ * The neighborhood of a point is encoded in 16 bits, two bits for each of the
+ * eight surrounding points in the order given by {@link #OFFSETS}. The values
+ * of the fields are the color constants of {@link LightGoban} and
+ * {@link #OFF_BOARD}. {@link LightGoban} maintains the code of each point
+ * incrementally, so looking up a weight is a single array access.
+ *
+ * A pattern file contains one pattern per line, given by its three rows and
+ * the weight, e.g.
+ *
+ * <pre>
+ * # hane
+ * XOX ... ??? 3.0
+ * </pre>
+ *
+ * <code>X</code> is a stone of the player to move, <code>O</code> one of the
+ * opponent, <code>.</code> an empty point and <code>-</code> a point outside
+ * the board. <code>?</code> matches any point on the board, <code>x</code>
+ * and <code>o</code> match an empty point or a stone of the respective color.
+ * The center is the move and has to be empty. Each pattern is added with all
+ * its rotations and reflections, and with swapped colors for the other
+ * player. Later lines override earlier ones, all other neighborhoods have the
+ * weight 1. Lines starting with <code>#</code> are comments.
+ *
+ * @author Christian Gawron
+ */
+public class PatternTable
+{
+	private static Logger logger = Logger.getLogger(PatternTable.class.getName());
+
+	/** The number of different codes. */
+	public static final int SIZE = 1 << 16;
+
+	/** The field value of a point outside the board. */
+	static final int OFF_BOARD = 3;
+
+	/**
+	 * The offsets <code>(dx, dy)</code> of the eight points of a
+	 * neighborhood. The opposite of offset <code>k</code> is
+	 * <code>7 - k</code>.
+	 */
+	static final int[][] OFFSETS = { { -1, -1 }, { -1, 0 }, { -1, 1 }, { 0, -1 },
+	                                 { 0, 1 }, { 1, -1 }, { 1, 0 }, { 1, 1 } };
+
+	/** The permutations of the fields for the eight spatial symmetries. */
+	private static final int[][] PERMUTATIONS = new int[8][8];
+
+	static {
+		Iterator<Symmetry> it = new Symmetry.SpatialIterator();
+		for (int i = 0; it.hasNext(); i++) {
+			Symmetry s = it.next();
+			for (int k = 0; k < 8; k++) {
+				Point p = s.transform(OFFSETS[k][0] + 1, OFFSETS[k][1] + 1, 3);
+				PERMUTATIONS[i][k] = field(p.getX() - 1, p.getY() - 1);
+			}
+		}
+	}
+
+	private static PatternTable cached;
+	private static String cachedFileName;
+
+	/** The weights indexed by the color to move and the code. */
+	private final float[][] weights = new float[3][];
+
+	/**
+	 * Create a table in which all neighborhoods have the weight 1.
+	 */
+	public PatternTable()
+	{
+		weights[LightGoban.BLACK] = new float[SIZE];
+		weights[LightGoban.WHITE] = new float[SIZE];
+		Arrays.fill(weights[LightGoban.BLACK], 1);
+		Arrays.fill(weights[LightGoban.WHITE], 1);
+	}
+
+	/**
+	 * Get the table read from <code>fileName</code>. The table is cached, so
+	 * the file is only read again if another file is requested.
+	 *
+	 * @return the table or null if <code>fileName</code> is null.
+	 */
+	static synchronized PatternTable get(String fileName)
+	{
+		if (fileName == null)
+			return null;
+		if (!fileName.equals(cachedFileName)) {
+			try {
+				cached = load(new File(fileName));
+			} catch (IOException ex) {
+				throw new IllegalArgumentException("error loading pattern file " + fileName, ex);
+			}
+			cachedFileName = fileName;
+		}
+		return cached;
+	}
+
+	public static PatternTable load(File file) throws IOException
+	{
+		Reader reader = new FileReader(file);
+		try {
+			PatternTable table = new PatternTable();
+			table.read(reader);
+			logger.info("loaded pattern file " + file);
+			return table;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Read patterns in the format described above.
+	 */
+	public void read(Reader reader) throws IOException
+	{
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		int lineNo = 0;
+		while ((line = in.readLine()) != null) {
+			lineNo++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#"))
+				continue;
+			String[] tokens = line.split("\\s+");
+			if (tokens.length != 4)
+				throw new IOException("line " + lineNo + ": expected three rows and a weight: " + line);
+			String rows = tokens[0] + tokens[1] + tokens[2];
+			if (rows.length() != 9 || rows.charAt(4) != '.')
+				throw new IOException("line " + lineNo + ": malformed pattern: " + line);
+			float weight;
+			try {
+				weight = Float.parseFloat(tokens[3]);
+			} catch (NumberFormatException ex) {
+				throw new IOException("line " + lineNo + ": malformed weight: " + line);
+			}
+			try {
+				add(rows, weight);
+			} catch (IllegalArgumentException ex) {
+				throw new IOException("line " + lineNo + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Set the weight of a pattern given by its nine characters, row by row.
+	 */
+	void add(String rows, float weight)
+	{
+		char[] fields = new char[8];
+		int k = 0;
+		for (int i = 0; i < 9; i++) {
+			if (i != 4)
+				fields[k++] = rows.charAt(i);
+		}
+		expand(fields, 0, 0, weight);
+	}
+
+	private void expand(char[] fields, int k, int code, float weight)
+	{
+		if (k == 8) {
+			for (int[] permutation : PERMUTATIONS) {
+				int c = permute(code, permutation);
+				weights[LightGoban.BLACK][c] = weight;
+				weights[LightGoban.WHITE][swapColors(c)] = weight;
+			}
+			return;
+		}
+
+		String values;
+		switch (fields[k]) {
+		case '.':
+			values = ".";
+			break;
+		case 'X':
+			values = "X";
+			break;
+		case 'O':
+			values = "O";
+			break;
+		case '-':
+			values = "-";
+			break;
+		case 'x':
+			values = ".X";
+			break;
+		case 'o':
+			values = ".O";
+			break;
+		case '?':
+			values = ".XO";
+			break;
+		default:
+			throw new IllegalArgumentException("illegal pattern character " + fields[k]);
+		}
+		for (int i = 0; i < values.length(); i++)
+			expand(fields, k + 1, code | value(values.charAt(i)) << 2 * k, weight);
+	}
+
+	private static int value(char c)
+	{
+		switch (c) {
+		case 'X':
+			return LightGoban.BLACK;
+		case 'O':
+			return LightGoban.WHITE;
+		case '-':
+			return OFF_BOARD;
+		default:
+			return LightGoban.EMPTY;
+		}
+	}
+
+	/**
+	 * Get the weight of a move of <code>color</code> at a point with the
+	 * neighborhood <code>code</code>.
+	 */
+	final float weight(int code, byte color)
+	{
+		return weights[color][code];
+	}
+
+	/**
+	 * Get the field of the offset <code>(dx, dy)</code>.
+	 */
+	static int field(int dx, int dy)
+	{
+		for (int k = 0; k < 8; k++) {
+			if (OFFSETS[k][0] == dx && OFFSETS[k][1] == dy)
+				return k;
+		}
+		throw new IllegalArgumentException("no neighbor offset: " + dx + ", " + dy);
+	}
+
+	private static int permute(int code, int[] permutation)
+	{
+		int result = 0;
+		for (int k = 0; k < 8; k++)
+			result |= (code >> 2 * k & 3) << 2 * permutation[k];
+		return result;
+	}
+
+	/**
+	 * Exchange black and white stones in <code>code</code>.
+	 */
+	static int swapColors(int code)
+	{
+		int result = 0;
+		for (int k = 0; k < 8; k++) {
+			int c = code >> 2 * k & 3;
+			if (c == LightGoban.BLACK || c == LightGoban.WHITE)
+				c = 3 - c;
+			result |= c << 2 * k;
+		}
+		return result;
+	}
+}
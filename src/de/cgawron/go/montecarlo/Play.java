@@ -30,6 +30,10 @@ public class Play extends JFrame implements Evaluator.EvaluatorListener
 {
 	private static final long serialVersionUID = 1L;
 	protected static final double RESIGN = 0.3;
+
+	/** The expected ownership above which an empty point is marked as territory. */
+	protected static final double TERRITORY = 0.5;
+
 	static Logger logger = Logger.getLogger(Play.class.getName());
 	
 	private JGoban gobanUI;
@@ -196,8 +200,9 @@ public class Play extends JFrame implements Evaluator.EvaluatorListener
 	{
 		logger.info("Setting simulations to " + Integer.toString(event.outstanding));
 		simulations.setText(Integer.toString(event.outstanding));	
-		value.setText(Double.toString(event.root.getBestChild().value));
+		value.setText(Double.toString(event.root.getBestChild().getValueSum()));
 		goban.resetMarkup();
+		markTerritory(evaluator.getOwnership().getOwnership());
 		for (AnalysisNode child : event.root.children) {
 			if (child.getMove() != null) {
 				Markup m = new MarkupModel.Text(String.format("%.1f:%d", child.getValue(), child.getVisits()));
@@ -205,4 +210,25 @@ public class Play extends JFrame implements Evaluator.EvaluatorListener
 			}
 		}
 	}
+
+	/**
+	 * Mark the empty points likely to be owned by one player, as seen by the
+	 * running search.
+	 */
+	private void markTerritory(double[][] ownership)
+	{
+		int size = goban.getBoardSize();
+		if (ownership.length != size)
+			return;
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if (goban.getStone(x, y) != BoardType.EMPTY)
+					continue;
+				if (ownership[x][y] > TERRITORY)
+					goban.setMarkup(new Point(x, y), new MarkupModel.BlackTerritory());
+				else if (ownership[x][y] < -TERRITORY)
+					goban.setMarkup(new Point(x, y), new MarkupModel.WhiteTerritory());
+			}
+		}
+	}
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.util.Arrays;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+
+/**
+ * Plays random games on a {@link LightGoban}, or on a {@link BitGoban} if
+ * {@link Evaluator.EvaluatorParameters#bitboardPlayout} is set. Each thread uses its own
+ * instance (see {@link #get()}), so a playout neither allocates objects nor
+ * needs any synchronization.
+ *
+ * The move selection mimics {@link AnalysisNode#calculateStaticSuitability()}:
+ * captures and saving stones in atari are preferred, self-atari is
+ * discouraged, and a player never fills his own eye. If
+ * {@link Evaluator.EvaluatorParameters#patternFile} is set, the suitability is
+ * multiplied by the weight of the 3x3 pattern around the move.
+ *
+ * @author Christian Gawron
+ */
+public class Playout
+{
+	private static final ThreadLocal<Playout> playouts = new ThreadLocal<Playout>() {
+		@Override
+		protected Playout initialValue()
+		{
+			return new Playout();
+		}
+	};
+
+	/**
+	 * Get the <code>Playout</code> of the current thread.
+	 */
+	public static Playout get()
+	{
+		return playouts.get();
+	}
+
+	private PlayoutBoard board;
+	private final LightGoban tree = new LightGoban();
+	private LightGoban treeSource;
+	private final FastRandom random = FastRandom.get();
+
+	/**
+	 * The weights of the points for black and white, indexed by the color
+	 * constants of {@link LightGoban}. Only weights of points reported by
+	 * {@link PlayoutBoard#changedPoints} are recalculated.
+	 */
+	private final WeightTree[] weights = new WeightTree[3];
+
+	/**
+	 * The points changed before the last move of each color, which still have
+	 * to be recalculated for the other color.
+	 */
+	private final int[][] pending = new int[3][];
+	private final int[] numPending = new int[3];
+
+	/** The pattern weights, null if no pattern file is used. */
+	private PatternTable patterns;
+
+	/**
+	 * The file <code>patterns</code> was read from; the shared table is only
+	 * looked up again if the file changes.
+	 */
+	private String patternFile;
+
+	/** The moves of the last playout, used for the RAVE statistics. */
+	private int[] moves = new int[0];
+	private byte[] moveColors = new byte[0];
+	private int numMoves;
+
+	/** Scratch arrays of the tree searches of the current thread. */
+	private int[] path = new int[0];
+	private byte[] firstColors = new byte[0];
+	private long[] order = new long[0];
+	private AnalysisNode[] sequence = new AnalysisNode[0];
+
+	/**
+	 * Play a random game starting at the position of <code>node</code>.
+	 *
+	 * @param ownership
+	 *            if not null, the owners of the final position are counted.
+	 * @return the final score (including komi), positive values are good for
+	 *         black.
+	 */
+	public double run(AnalysisNode node, Ownership.ThreadOwnership ownership)
+	{
+		return run(node.getGoban(), node.movingColor, node.isPass() ? 1 : 0,
+		           node.moveNo, node.komi, ownership);
+	}
+
+	/**
+	 * Play a random game starting at <code>goban</code>.
+	 *
+	 * @param passes
+	 *            the number of passes immediately preceding the position.
+	 * @param moveNo
+	 *            the number of moves already played; the playout stops after
+	 *            {@link Evaluator.EvaluatorParameters#maxMoves} moves.
+	 */
+	public double run(Goban goban, BoardType movingColor, int passes, int moveNo,
+	                  double komi, Ownership.ThreadOwnership ownership)
+	{
+		if (board == null || (board instanceof BitGoban) != Evaluator.parameters.bitboardPlayout)
+			board = Evaluator.parameters.bitboardPlayout ? new BitGoban() : new LightGoban();
+		board.copy(goban);
+		String fileName = Evaluator.parameters.patternFile;
+		if (fileName == null)
+			patterns = null;
+		else if (!fileName.equals(patternFile))
+			patterns = PatternTable.get(fileName);
+		patternFile = fileName;
+		int numPoints = board.getBoardSize() * board.getBoardSize();
+		if (weights[LightGoban.BLACK] == null || weights[LightGoban.BLACK].size() != numPoints) {
+			weights[LightGoban.BLACK] = new WeightTree(numPoints);
+			weights[LightGoban.WHITE] = new WeightTree(numPoints);
+			pending[LightGoban.BLACK] = new int[numPoints];
+			pending[LightGoban.WHITE] = new int[numPoints];
+		}
+		else {
+			weights[LightGoban.BLACK].clear();
+			weights[LightGoban.WHITE].clear();
+		}
+		numPending[LightGoban.BLACK] = 0;
+		numPending[LightGoban.WHITE] = 0;
+
+		byte color = LightGoban.toByte(movingColor);
+		int maxMoves = Evaluator.parameters.maxMoves;
+		if (moves.length < maxMoves) {
+			moves = new int[maxMoves];
+			moveColors = new byte[maxMoves];
+		}
+		numMoves = 0;
+
+		while (passes < 2 && moveNo < maxMoves) {
+			int p = selectMove(color);
+			moves[numMoves] = p;
+			moveColors[numMoves++] = color;
+			if (p == LightGoban.NONE) {
+				board.pass();
+				passes++;
+			}
+			else {
+				board.play(p, color);
+				weights[LightGoban.BLACK].set(p, 0);
+				weights[LightGoban.WHITE].set(p, 0);
+				passes = 0;
+			}
+			color = LightGoban.opposite(color);
+			moveNo++;
+		}
+		SearchEvents.ScoringEvent event = SearchEvents.scoring();
+		int score = board.areaScore(ownership != null ? ownership.owner : null);
+		if (event != null)
+			event.finish(moveNo, board.getBoardSize());
+		if (ownership != null)
+			ownership.record(score - komi);
+		return score - komi;
+	}
+
+	/**
+	 * Select a random move for <code>color</code> with a probability
+	 * proportional to its {@link PlayoutBoard#suitability suitability}. The
+	 * weights of <code>color</code> were last updated before its previous
+	 * move, so the points changed since then are those the opponent already
+	 * recalculated and those changed by the opponent's move.
+	 *
+	 * @return the selected point or {@link LightGoban#NONE} to pass.
+	 */
+	int selectMove(byte color)
+	{
+		WeightTree tree = weights[color];
+		int[] own = pending[color];
+		for (int i = 0; i < numPending[color]; i++) {
+			int p = own[i];
+			tree.set(p, WeightTree.weight(suitability(p, color)));
+		}
+
+		byte enemy = LightGoban.opposite(color);
+		int[] other = pending[enemy];
+		int n = board.changedPoints(other);
+		numPending[enemy] = n;
+		for (int i = 0; i < n; i++) {
+			int p = other[i];
+			tree.set(p, WeightTree.weight(suitability(p, color)));
+		}
+
+		long total = tree.total();
+		if (total <= 0)
+			return LightGoban.NONE;
+		else
+			return tree.sample(Math.min((long) (random.nextDouble() * total), total - 1));
+	}
+
+	/**
+	 * Get the suitability of a move on the board, weighted by the pattern
+	 * around it.
+	 */
+	private double suitability(int p, byte color)
+	{
+		double suitability = board.suitability(p, color);
+		if (patterns != null && suitability > 0)
+			suitability *= patterns.weight(board.pattern(p), color);
+		return suitability;
+	}
+
+	/**
+	 * Calculate the suitability of a move, which is used as a (relative)
+	 * probability when choosing a move. Boards call this after checking that
+	 * the move is legal and does not fill an eye.
+	 *
+	 * @param captured
+	 *            the number of stones captured by the move.
+	 * @param atari
+	 *            the number of own stones in atari adjacent to the move.
+	 * @param size
+	 *            the size of the chain containing the move.
+	 * @param liberties
+	 *            the liberties of that chain, counted up to 2.
+	 */
+	static double suitability(int captured, int atari, int size, int liberties)
+	{
+		double suitability = 1;
+
+		// Capture is good
+		suitability += 2 * captured;
+
+		// Saving stones is good
+		if (atari > 0 && liberties > 1)
+			suitability += 2 * atari;
+
+		// Self-Atari is discouraged
+		if (liberties == 1 && captured == 0)
+			suitability /= size;
+
+		return suitability;
+	}
+
+	/**
+	 * Get the board on which the current thread walks the analysis tree. It
+	 * holds the position of <code>root</code>, moves played on it with
+	 * {@link LightGoban#make} have to be taken back before the next call.
+	 */
+	LightGoban getTreeBoard(LightGoban root)
+	{
+		if (treeSource != root || tree.getDepth() > 0) {
+			tree.copy(root);
+			treeSource = root;
+		}
+		return tree;
+	}
+
+	/**
+	 * Get the number of moves (including passes) of the last playout.
+	 */
+	int getNumMoves()
+	{
+		return numMoves;
+	}
+
+	/**
+	 * Get the index of the <code>i</code>th move of the last playout, or
+	 * {@link LightGoban#NONE} for a pass.
+	 */
+	int getMove(int i)
+	{
+		return moves[i];
+	}
+
+	/**
+	 * Get the color which played the <code>i</code>th move of the last
+	 * playout.
+	 */
+	byte getMoveColor(int i)
+	{
+		return moveColors[i];
+	}
+
+	/**
+	 * Get an array of at least <code>length</code> elements to hold the path
+	 * of a simulation through the tree. Its contents are undefined.
+	 */
+	int[] getPath(int length)
+	{
+		if (path.length < length)
+			path = new int[length];
+		return path;
+	}
+
+	/**
+	 * Get an array of at least <code>length</code> elements to hold the nodes
+	 * of a simulation through the tree. All its elements are null; the caller
+	 * has to set the elements it used back to null, see
+	 * {@link #clearSequence}.
+	 */
+	AnalysisNode[] getSequence(int length)
+	{
+		if (sequence.length < length)
+			sequence = new AnalysisNode[length];
+		return sequence;
+	}
+
+	/**
+	 * Set the elements of <code>sequence</code> back to null, up to the first
+	 * one which is null already, so it neither keeps nodes alive nor is seen
+	 * by the next simulation.
+	 */
+	static void clearSequence(AnalysisNode[] sequence)
+	{
+		for (int i = 0; i < sequence.length && sequence[i] != null; i++)
+			sequence[i] = null;
+	}
+
+	/**
+	 * Get an array of at least <code>length</code> elements to sort the
+	 * candidate moves of a node being expanded. Its contents are undefined.
+	 */
+	long[] getOrder(int length)
+	{
+		if (order.length < length)
+			order = new long[length];
+		return order;
+	}
+
+	/**
+	 * Get an array of at least <code>numPoints</code> elements, the first
+	 * <code>numPoints</code> of which are 0, to hold the color which first
+	 * played on each point for the RAVE statistics.
+	 */
+	byte[] getFirstColors(int numPoints)
+	{
+		if (firstColors.length < numPoints)
+			firstColors = new byte[numPoints];
+		else
+			Arrays.fill(firstColors, 0, numPoints, (byte) 0);
+		return firstColors;
+	}
+
+	/**
+	 * Get the board used by this <code>Playout</code>.
+	 */
+	PlayoutBoard getBoard()
+	{
+		return board;
+	}
+}
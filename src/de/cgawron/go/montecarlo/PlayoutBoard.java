@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import de.cgawron.go.Goban;
+
+/**
+ * A goban which can be used by {@link Playout}. Points are addressed by their
+ * index <code>x * boardSize + y</code>, colors by the byte constants of
+ * {@link LightGoban}.
+ *
+ * @author Christian Gawron
+ */
+interface PlayoutBoard extends Goban
+{
+	/**
+	 * Store the indices of all empty points in <code>points</code>.
+	 *
+	 * @return the number of empty points.
+	 */
+	int emptyPoints(int[] points);
+
+	/**
+	 * Store the points whose suitability may have changed since the last call
+	 * in <code>points</code>. A board which doesn't track changes may return
+	 * all points.
+	 *
+	 * @return the number of changed points.
+	 */
+	int changedPoints(int[] points);
+
+	/**
+	 * Calculate the suitability of a move, see
+	 * {@link Playout#suitability(int, int, int, int)}.
+	 *
+	 * @return the suitability, 0 if the move is illegal or fills an eye.
+	 */
+	double suitability(int p, byte color);
+
+	/**
+	 * Get the code of the 3x3 neighborhood of <code>p</code>, see
+	 * {@link PatternTable}.
+	 */
+	int pattern(int p);
+
+	/**
+	 * Play a legal move.
+	 *
+	 * @return the number of captured stones.
+	 */
+	int play(int p, byte color);
+
+	/**
+	 * Pass.
+	 */
+	void pass();
+
+	/**
+	 * Calculate the area score, assuming all stones on the board are alive.
+	 *
+	 * @see LightGoban#chineseScore(double[][])
+	 */
+	int chineseScore(double[][] territory);
+
+	/**
+	 * Calculate the area score and store the owner of each point, indexed by
+	 * point.
+	 *
+	 * @see LightGoban#areaScore(int[])
+	 */
+	int areaScore(int[] owner);
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The statistics of a root and its children, collected from independent
+ * searches of the same position and added up. The children are indexed by
+ * the point index of their move, a pass has the index
+ * <code>numPoints</code>. This is how the trees of a
+ * {@link Evaluator.Parallelism#ROOT} search and the results of a
+ * {@link SearchServer} are merged.
+ *
+ * @author Christian Gawron
+ */
+class RootStatistics
+{
+	private final int numPoints;
+	private int visits;
+	private double valueSum;
+	private double scoreSum;
+	private final int[] childVisits;
+	private final double[] childValueSums;
+	private final double[] childScoreSums;
+
+	RootStatistics(int numPoints)
+	{
+		this.numPoints = numPoints;
+		childVisits = new int[numPoints + 1];
+		childValueSums = new double[numPoints + 1];
+		childScoreSums = new double[numPoints + 1];
+	}
+
+	/**
+	 * Add the statistics of a searched root and its children.
+	 */
+	void add(AnalysisNode root)
+	{
+		if (root.getVisits() == 0 || root.children == null)
+			return;
+		visits += root.getVisits();
+		valueSum += root.getValueSum();
+		scoreSum += root.getVisits() * root.getScore();
+		for (AnalysisNode child : root.children) {
+			if (child.getVisits() == 0)
+				continue;
+			int i = index(root.getChildMoveIndex(child));
+			childVisits[i] += child.getVisits();
+			childValueSums[i] += child.getValueSum();
+			childScoreSums[i] += child.getVisits() * child.getScore();
+		}
+	}
+
+	/**
+	 * Add the statistics of the child for the move at point index
+	 * <code>p</code>, or for a pass if <code>p</code> is
+	 * {@link LightGoban#NONE}.
+	 */
+	void addChild(int p, int visits, double valueSum, double scoreSum)
+	{
+		int i = index(p);
+		childVisits[i] += visits;
+		childValueSums[i] += valueSum;
+		childScoreSums[i] += scoreSum;
+	}
+
+	/**
+	 * Add the statistics of the root itself.
+	 */
+	void addRoot(int visits, double valueSum, double scoreSum)
+	{
+		this.visits += visits;
+		this.valueSum += valueSum;
+		this.scoreSum += scoreSum;
+	}
+
+	void add(RootStatistics other)
+	{
+		if (other.numPoints != numPoints)
+			throw new IllegalArgumentException("board sizes differ");
+		visits += other.visits;
+		valueSum += other.valueSum;
+		scoreSum += other.scoreSum;
+		for (int i = 0; i <= numPoints; i++) {
+			childVisits[i] += other.childVisits[i];
+			childValueSums[i] += other.childValueSums[i];
+			childScoreSums[i] += other.childScoreSums[i];
+		}
+	}
+
+	int getVisits()
+	{
+		return visits;
+	}
+
+	/**
+	 * Copy the visits and value sums of the visited children into
+	 * <code>visits</code> and <code>valueSums</code>, which need room for
+	 * <code>numPoints + 1</code> children.
+	 *
+	 * @return the number of children copied.
+	 */
+	int getChildren(int[] visits, double[] valueSums)
+	{
+		int n = 0;
+		for (int i = 0; i <= numPoints; i++) {
+			if (childVisits[i] == 0)
+				continue;
+			visits[n] = childVisits[i];
+			valueSums[n++] = childValueSums[i];
+		}
+		return n;
+	}
+
+	private int index(int p)
+	{
+		return p == LightGoban.NONE ? numPoints : p;
+	}
+
+	/**
+	 * Add these statistics to <code>root</code> and its children. Missing
+	 * children are created.
+	 */
+	void addTo(AnalysisNode root)
+	{
+		Map<Integer, AnalysisNode> byMove = new HashMap<Integer, AnalysisNode>();
+		Set<AnalysisNode> children = new HashSet<AnalysisNode>();
+		if (root.children != null) {
+			for (AnalysisNode child : root.children) {
+				byMove.put(index(root.getChildMoveIndex(child)), child);
+				children.add(child);
+			}
+		}
+		for (int i = 0; i <= numPoints; i++) {
+			if (childVisits[i] == 0)
+				continue;
+			AnalysisNode child = byMove.get(i);
+			if (child == null) {
+				child = Evaluator.createRootChild(root, i == numPoints ? LightGoban.NONE : i);
+				children.add(child);
+			}
+			add(child, childVisits[i], childValueSums[i], childScoreSums[i]);
+		}
+		add(root, visits, valueSum, scoreSum);
+		root.children = children;
+	}
+
+	private static void add(AnalysisNode node, int visits, double valueSum, double scoreSum)
+	{
+		int n = node.getVisits();
+		double score = n > 0 ? n * node.getScore() : 0;
+		node.setStatistics(n + visits, node.getValueSum() + valueSum, score + scoreSum);
+	}
+
+	void write(DataOutput out) throws IOException
+	{
+		out.writeInt(numPoints);
+		out.writeInt(visits);
+		out.writeDouble(valueSum);
+		out.writeDouble(scoreSum);
+		int n = 0;
+		for (int i = 0; i <= numPoints; i++) {
+			if (childVisits[i] > 0)
+				n++;
+		}
+		out.writeInt(n);
+		for (int i = 0; i <= numPoints; i++) {
+			if (childVisits[i] == 0)
+				continue;
+			out.writeInt(i);
+			out.writeInt(childVisits[i]);
+			out.writeDouble(childValueSums[i]);
+			out.writeDouble(childScoreSums[i]);
+		}
+	}
+
+	/**
+	 * Read statistics written by {@link #write} for a board with
+	 * <code>numPoints</code> points.
+	 * 
+	 * @throws IOException
+	 *             if the statistics are for a different board size.
+	 */
+	static RootStatistics read(DataInput in, int numPoints) throws IOException
+	{
+		int n = in.readInt();
+		if (n != numPoints)
+			throw new IOException("expected statistics for " + numPoints + " points, got " + n);
+		RootStatistics statistics = new RootStatistics(numPoints);
+		statistics.visits = in.readInt();
+		statistics.valueSum = in.readDouble();
+		statistics.scoreSum = in.readDouble();
+		n = in.readInt();
+		if (n < 0 || n > numPoints + 1)
+			throw new IOException("illegal number of children " + n);
+		for (int k = 0; k < n; k++) {
+			int i = in.readInt();
+			if (i < 0 || i > statistics.numPoints)
+				throw new IOException("illegal move index " + i);
+			statistics.childVisits[i] = in.readInt();
+			statistics.childValueSums[i] = in.readDouble();
+			statistics.childScoreSums[i] = in.readDouble();
+		}
+		return statistics;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the search phases. A phase is timed by
+ * getting an event from the factory method before and calling
+ * <code>finish</code> after it:
+ *
+ * <pre>
+ * SearchEvents.PlayoutEvent event = SearchEvents.playout();
+ * ...
+ * if (event != null)
+ * 	event.finish(depth, moves, playouts, boardSize);
+ * </pre>
+ *
+ * The factory methods return null if the JVM has no flight recorder, so the
+ * search runs on any JVM. If the recorder is not recording, an event is
+ * neither filled in nor committed and its allocation is usually removed by
+ * escape analysis.
+ *
+ * Expansion, playout, scoring and backup events occur in every simulation;
+ * a recording can limit them with a threshold, e.g.
+ * <code>de.cgawron.go.Playout#threshold=1 ms</code> in a
+ * <code>.jfc</code> file.
+ *
+ * @author Christian Gawron
+ */
+final class SearchEvents
+{
+	/** Set if the JVM has the flight recorder API. */
+	static final boolean AVAILABLE = isAvailable();
+
+	private SearchEvents()
+	{
+	}
+
+	private static boolean isAvailable()
+	{
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+
+	@Name("de.cgawron.go.Search")
+	@Label("Search")
+	@Description("A search of a position by Evaluator.evaluate")
+	@Category({ "RanGo", "Search" })
+	static class SearchEvent extends Event
+	{
+		@Label("Board Size")
+		int boardSize;
+
+		@Label("Threads")
+		int threads;
+
+		@Label("Parallelism")
+		String parallelism;
+
+		@Label("Simulations")
+		int simulations;
+
+		@Label("Tree Nodes")
+		int treeNodes;
+
+		void finish(int boardSize, int simulations, int treeNodes)
+		{
+			end();
+			if (shouldCommit()) {
+				this.boardSize = boardSize;
+				this.threads = Evaluator.parameters.numThreads;
+				this.parallelism = Evaluator.parameters.arenaTree ? "ARENA" : Evaluator.parameters.parallelism.name();
+				this.simulations = simulations;
+				this.treeNodes = treeNodes;
+				commit();
+			}
+		}
+	}
+
+	@Name("de.cgawron.go.Expansion")
+	@Label("Expansion")
+	@Description("The expansion of a node by Evaluator.createNode")
+	@Category({ "RanGo", "Search" })
+	@StackTrace(false)
+	static class ExpansionEvent extends Event
+	{
+		@Label("Depth")
+		@Description("The depth of the node below the root")
+		int depth;
+
+		@Label("Children")
+		int children;
+
+		@Label("Board Size")
+		int boardSize;
+
+		void finish(int depth, int children, int boardSize)
+		{
+			end();
+			if (shouldCommit()) {
+				this.depth = depth;
+				this.children = children;
+				this.boardSize = boardSize;
+				commit();
+			}
+		}
+	}
+
+	@Name("de.cgawron.go.Playout")
+	@Label("Playout")
+	@Description("The playouts from a leaf of the tree, one unless the search is leaf parallel")
+	@Category({ "RanGo", "Search" })
+	@StackTrace(false)
+	static class PlayoutEvent extends Event
+	{
+		@Label("Depth")
+		@Description("The depth of the leaf below the root")
+		int depth;
+
+		@Label("Moves")
+		@Description("The moves of the playout run by the searching thread")
+		int moves;
+
+		@Label("Playouts")
+		int playouts;
+
+		@Label("Board Size")
+		int boardSize;
+
+		void finish(int depth, int moves, int playouts, int boardSize)
+		{
+			end();
+			if (shouldCommit()) {
+				this.depth = depth;
+				this.moves = moves;
+				this.playouts = playouts;
+				this.boardSize = boardSize;
+				commit();
+			}
+		}
+	}
+
+	@Name("de.cgawron.go.Scoring")
+	@Label("Scoring")
+	@Description("The area scoring of a final position")
+	@Category({ "RanGo", "Search" })
+	@StackTrace(false)
+	static class ScoringEvent extends Event
+	{
+		@Label("Move Number")
+		@Description("The number of moves played since the root")
+		int moveNo;
+
+		@Label("Board Size")
+		int boardSize;
+
+		void finish(int moveNo, int boardSize)
+		{
+			end();
+			if (shouldCommit()) {
+				this.moveNo = moveNo;
+				this.boardSize = boardSize;
+				commit();
+			}
+		}
+	}
+
+	@Name("de.cgawron.go.Backup")
+	@Label("Backup")
+	@Description("The update of the statistics along the path of a simulation")
+	@Category({ "RanGo", "Search" })
+	@StackTrace(false)
+	static class BackupEvent extends Event
+	{
+		@Label("Depth")
+		@Description("The depth of the leaf below the root")
+		int depth;
+
+		@Label("Playouts")
+		int playouts;
+
+		@Label("Board Size")
+		int boardSize;
+
+		void finish(int depth, int playouts, int boardSize)
+		{
+			end();
+			if (shouldCommit()) {
+				this.depth = depth;
+				this.playouts = playouts;
+				this.boardSize = boardSize;
+				commit();
+			}
+		}
+	}
+
+	static SearchEvent search()
+	{
+		if (!AVAILABLE)
+			return null;
+		SearchEvent event = new SearchEvent();
+		event.begin();
+		return event;
+	}
+
+	static ExpansionEvent expansion()
+	{
+		if (!AVAILABLE)
+			return null;
+		ExpansionEvent event = new ExpansionEvent();
+		event.begin();
+		return event;
+	}
+
+	static PlayoutEvent playout()
+	{
+		if (!AVAILABLE)
+			return null;
+		PlayoutEvent event = new PlayoutEvent();
+		event.begin();
+		return event;
+	}
+
+	static ScoringEvent scoring()
+	{
+		if (!AVAILABLE)
+			return null;
+		ScoringEvent event = new ScoringEvent();
+		event.begin();
+		return event;
+	}
+
+	static BackupEvent backup()
+	{
+		if (!AVAILABLE)
+			return null;
+		BackupEvent event = new BackupEvent();
+		event.begin();
+		return event;
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of the searches of an {@link Evaluator}, see
+ * {@link Evaluator#getMetrics()}. They can be read while a search is running,
+ * e.g. through JMX after {@link #register(String)}.
+ *
+ * Each search thread counts in a {@link ThreadMetrics} of its own, which
+ * only that thread writes, so counting needs neither locks nor atomic
+ * operations. The values are added up when they are read.
+ *
+ * @author Christian Gawron
+ */
+public class SearchMetrics implements SearchMetricsMBean
+{
+	/** The JMX domain of the metrics. */
+	public static final String DOMAIN = "de.cgawron.go.montecarlo";
+
+	/**
+	 * The estimated size of an {@link AnalysisNode} without goban, including
+	 * its entry in the set of children of its parent.
+	 */
+	private static final int NODE_BYTES = 200;
+
+	/** The estimated size of an {@link AnalysisGoban} per point. */
+	private static final int GOBAN_BYTES_PER_POINT = 8;
+
+	/** The size of a node of a {@link TreeArena}. */
+	private static final int ARENA_NODE_BYTES = 60;
+
+	/**
+	 * The counters of a thread. The fields are volatile so other threads see
+	 * recent values; as only the owning thread writes them, increments are
+	 * safe.
+	 */
+	static class ThreadMetrics
+	{
+		volatile long simulations;
+		volatile long playouts;
+		volatile long playoutMoves;
+		volatile int maxPlayoutLength;
+		volatile int maxDepth;
+		volatile long nodes;
+		volatile long transpositionHits;
+		volatile long selectionNanos;
+		volatile long expansionNanos;
+		volatile long playoutNanos;
+		volatile long backupNanos;
+		volatile long lockWaitNanos;
+
+		/** The search the counters are counted in, null between searches. */
+		volatile SearchMetrics search;
+
+		void reset()
+		{
+			simulations = 0;
+			playouts = 0;
+			playoutMoves = 0;
+			maxPlayoutLength = 0;
+			maxDepth = 0;
+			nodes = 0;
+			transpositionHits = 0;
+			selectionNanos = 0;
+			expansionNanos = 0;
+			playoutNanos = 0;
+			backupNanos = 0;
+			lockWaitNanos = 0;
+		}
+
+		void playout(int length)
+		{
+			playouts++;
+			playoutMoves += length;
+			if (length > maxPlayoutLength)
+				maxPlayoutLength = length;
+		}
+
+		void depth(int depth)
+		{
+			if (depth > maxDepth)
+				maxDepth = depth;
+		}
+	}
+
+	private static final ThreadLocal<ThreadMetrics> THREAD_METRICS = new ThreadLocal<ThreadMetrics>() {
+		@Override
+		protected ThreadMetrics initialValue()
+		{
+			return new ThreadMetrics();
+		}
+	};
+
+	/**
+	 * Get the counters of the current thread. They are counted in the
+	 * metrics of a search if the thread is {@link #attach()}ed to it.
+	 */
+	static ThreadMetrics get()
+	{
+		return THREAD_METRICS.get();
+	}
+
+	private final List<ThreadMetrics> threads = new CopyOnWriteArrayList<ThreadMetrics>();
+	private volatile boolean searching;
+	private volatile long startNanos;
+	private volatile long endNanos;
+	private volatile int reusedNodes;
+	private volatile int boardSize;
+	private volatile boolean lightTree;
+	private volatile TreeArena arena;
+
+	/**
+	 * Start counting a search.
+	 *
+	 * @param arena
+	 *            the arena if the search uses one, or null.
+	 */
+	void start(int boardSize, TreeArena arena)
+	{
+		threads.clear();
+		this.boardSize = boardSize;
+		this.lightTree = Evaluator.parameters.lightTree;
+		this.arena = arena;
+		reusedNodes = 0;
+		startNanos = System.nanoTime();
+		searching = true;
+	}
+
+	/**
+	 * Reset the counters of the current thread and count them in the
+	 * running search.
+	 */
+	ThreadMetrics attach()
+	{
+		ThreadMetrics metrics = get();
+		metrics.reset();
+		metrics.search = this;
+		threads.add(metrics);
+		return metrics;
+	}
+
+	void setReusedNodes(int reusedNodes)
+	{
+		this.reusedNodes = reusedNodes;
+	}
+
+	void end()
+	{
+		endNanos = System.nanoTime();
+		searching = false;
+		for (ThreadMetrics metrics : threads) {
+			if (metrics.search == this)
+				metrics.search = null;
+		}
+	}
+
+	/**
+	 * Register these metrics with the platform MBean server under the name
+	 * <code>de.cgawron.go.montecarlo:type=SearchMetrics,name=</code><i>name</i>.
+	 */
+	public ObjectName register(String name) throws JMException
+	{
+		ObjectName objectName = new ObjectName(DOMAIN + ":type=SearchMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public boolean isSearching()
+	{
+		return searching;
+	}
+
+	@Override
+	public int getThreads()
+	{
+		return threads.size();
+	}
+
+	private long elapsedNanos()
+	{
+		if (startNanos == 0)
+			return 0;
+		return (searching ? System.nanoTime() : endNanos) - startNanos;
+	}
+
+	@Override
+	public long getElapsedTime()
+	{
+		return elapsedNanos() / 1000000;
+	}
+
+	@Override
+	public long getSimulations()
+	{
+		long n = 0;
+		for (ThreadMetrics metrics : threads)
+			n += metrics.simulations;
+		return n;
+	}
+
+	@Override
+	public double getPlayoutsPerSecond()
+	{
+		return perSecond(getSimulations());
+	}
+
+	@Override
+	public double[] getPlayoutsPerSecondPerThread()
+	{
+		double[] rates = new double[threads.size()];
+		int i = 0;
+		for (ThreadMetrics metrics : threads) {
+			if (i == rates.length)
+				break;
+			rates[i++] = perSecond(metrics.simulations);
+		}
+		return rates;
+	}
+
+	private double perSecond(long n)
+	{
+		long elapsed = elapsedNanos();
+		return elapsed > 0 ? 1e9 * n / elapsed : 0;
+	}
+
+	@Override
+	public double getAveragePlayoutLength()
+	{
+		long playouts = 0;
+		long moves = 0;
+		for (ThreadMetrics metrics : threads) {
+			playouts += metrics.playouts;
+			moves += metrics.playoutMoves;
+		}
+		return playouts > 0 ? (double) moves / playouts : 0;
+	}
+
+	@Override
+	public int getMaxPlayoutLength()
+	{
+		int max = 0;
+		for (ThreadMetrics metrics : threads)
+			max = Math.max(max, metrics.maxPlayoutLength);
+		return max;
+	}
+
+	@Override
+	public int getMaxDepth()
+	{
+		int max = 0;
+		for (ThreadMetrics metrics : threads)
+			max = Math.max(max, metrics.maxDepth);
+		return max;
+	}
+
+	/**
+	 * Get the number of nodes of the tree: those reused from the previous
+	 * search and those created by this one, or the nodes in use of the
+	 * arena.
+	 */
+	@Override
+	public int getTreeNodes()
+	{
+		TreeArena arena = this.arena;
+		if (arena != null)
+			return arena.size();
+		long n = reusedNodes;
+		for (ThreadMetrics metrics : threads)
+			n += metrics.nodes;
+		return (int) Math.min(n, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get a rough estimate of the memory used by the tree in bytes.
+	 */
+	@Override
+	public long getTreeMemoryEstimate()
+	{
+		long nodes = getTreeNodes();
+		if (arena != null)
+			return nodes * ARENA_NODE_BYTES;
+		else if (lightTree)
+			return nodes * NODE_BYTES;
+		else
+			return nodes * (NODE_BYTES + GOBAN_BYTES_PER_POINT * boardSize * boardSize);
+	}
+
+	@Override
+	public long getTranspositionHits()
+	{
+		long n = 0;
+		for (ThreadMetrics metrics : threads)
+			n += metrics.transpositionHits;
+		return n;
+	}
+
+	@Override
+	public double getSelectionTime()
+	{
+		long nanos = 0;
+		for (ThreadMetrics metrics : threads)
+			nanos += metrics.selectionNanos;
+		return nanos / 1e6;
+	}
+
+	@Override
+	public double getExpansionTime()
+	{
+		long nanos = 0;
+		for (ThreadMetrics metrics : threads)
+			nanos += metrics.expansionNanos;
+		return nanos / 1e6;
+	}
+
+	@Override
+	public double getPlayoutTime()
+	{
+		long nanos = 0;
+		for (ThreadMetrics metrics : threads)
+			nanos += metrics.playoutNanos;
+		return nanos / 1e6;
+	}
+
+	@Override
+	public double getBackupTime()
+	{
+		long nanos = 0;
+		for (ThreadMetrics metrics : threads)
+			nanos += metrics.backupNanos;
+		return nanos / 1e6;
+	}
+
+	@Override
+	public double getLockWaitTime()
+	{
+		long nanos = 0;
+		for (ThreadMetrics metrics : threads)
+			nanos += metrics.lockWaitNanos;
+		return nanos / 1e6;
+	}
+
+	/**
+	 * Get the metrics as lines of <code>name value</code>, as returned by
+	 * the GTP command <code>rango-metrics</code>.
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("searching %b\n", isSearching()));
+		sb.append(String.format("threads %d\n", getThreads()));
+		sb.append(String.format("elapsed_ms %d\n", getElapsedTime()));
+		sb.append(String.format("simulations %d\n", getSimulations()));
+		sb.append(String.format("playouts_per_second %.0f\n", getPlayoutsPerSecond()));
+		sb.append("playouts_per_second_per_thread");
+		for (double rate : getPlayoutsPerSecondPerThread())
+			sb.append(String.format(" %.0f", rate));
+		sb.append(String.format("\n"));
+		sb.append(String.format("average_playout_length %.1f\n", getAveragePlayoutLength()));
+		sb.append(String.format("max_playout_length %d\n", getMaxPlayoutLength()));
+		sb.append(String.format("max_depth %d\n", getMaxDepth()));
+		sb.append(String.format("tree_nodes %d\n", getTreeNodes()));
+		sb.append(String.format("tree_memory_estimate %d\n", getTreeMemoryEstimate()));
+		sb.append(String.format("transposition_hits %d\n", getTranspositionHits()));
+		sb.append(String.format("selection_ms %.1f\n", getSelectionTime()));
+		sb.append(String.format("expansion_ms %.1f\n", getExpansionTime()));
+		sb.append(String.format("playout_ms %.1f\n", getPlayoutTime()));
+		sb.append(String.format("backup_ms %.1f\n", getBackupTime()));
+		sb.append(String.format("lock_wait_ms %.1f", getLockWaitTime()));
+		return sb.toString();
+	}
+}
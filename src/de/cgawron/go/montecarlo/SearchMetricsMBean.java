@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+/**
+ * The JMX interface of {@link SearchMetrics}. All values refer to the
+ * running search, or to the last one if no search is running. Times are in
+ * milliseconds, summed over the search threads.
+ *
+ * @author Christian Gawron
+ */
+public interface SearchMetricsMBean
+{
+	boolean isSearching();
+
+	int getThreads();
+
+	long getElapsedTime();
+
+	long getSimulations();
+
+	double getPlayoutsPerSecond();
+
+	double[] getPlayoutsPerSecondPerThread();
+
+	double getAveragePlayoutLength();
+
+	int getMaxPlayoutLength();
+
+	int getMaxDepth();
+
+	int getTreeNodes();
+
+	long getTreeMemoryEstimate();
+
+	long getTranspositionHits();
+
+	double getSelectionTime();
+
+	double getExpansionTime();
+
+	double getPlayoutTime();
+
+	double getBackupTime();
+
+	double getLockWaitTime();
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+
+/**
+ * A worker of a distributed root parallel search. The server accepts one
+ * connection per search. The coordinator, an {@link Evaluator} with
+ * {@link Evaluator.EvaluatorParameters#workers} set, sends the position and
+ * the budget; the server searches the position and answers with the
+ * {@link RootStatistics} of the root, which the coordinator adds to its own.
+ *
+ * A request consists of {@link #MAGIC}, the board size, one byte per point
+ * with the color constants of {@link LightGoban}, the moving color, the
+ * komi, the number of simulations and the time in milliseconds (0 if the
+ * number of simulations is used). The answer starts with a boolean which is
+ * true if the search succeeded; it is followed by the {@link RootStatistics}
+ * or by the message of the error.
+ *
+ * <pre>
+ * SearchServer [-port n] [-threads n]
+ * </pre>
+ *
+ * The server prints the port it listens on, which is useful with port 0.
+ *
+ * @author Christian Gawron
+ */
+public class SearchServer
+{
+	private static Logger logger = Logger.getLogger(SearchServer.class.getName());
+
+	/** The first int of a request, identifying the protocol version. */
+	static final int MAGIC = 0x52476f02;
+
+	/** A search requested by a coordinator. */
+	static class Request
+	{
+		AnalysisNode root;
+		int numSimulations;
+		long time;
+	}
+
+	private final ServerSocket serverSocket;
+	private final Evaluator evaluator = new Evaluator();
+
+	public SearchServer(int port) throws IOException
+	{
+		serverSocket = new ServerSocket(port);
+	}
+
+	public int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stop accepting searches.
+	 */
+	public void close() throws IOException
+	{
+		serverSocket.close();
+	}
+
+	/**
+	 * Serve searches until the server socket is closed.
+	 */
+	public void run() throws IOException
+	{
+		while (true) {
+			Socket socket = serverSocket.accept();
+			try {
+				serve(socket);
+			} catch (IOException ex) {
+				logger.log(Level.WARNING, "search for " + socket.getRemoteSocketAddress() + " failed", ex);
+			} catch (RuntimeException ex) {
+				logger.log(Level.SEVERE, "search for " + socket.getRemoteSocketAddress() + " failed", ex);
+			} finally {
+				socket.close();
+			}
+		}
+	}
+
+	private void serve(Socket socket) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		Request request;
+		try {
+			request = readRequest(in);
+		} catch (IOException ex) {
+			writeError(out, ex.getMessage());
+			throw ex;
+		}
+		logger.info("searching for " + socket.getRemoteSocketAddress() + ": " + request.numSimulations
+		            + " simulations, time=" + request.time);
+
+		// the coordinator abandons a search by closing the connection
+		Thread watcher = new Thread("watch " + socket.getRemoteSocketAddress()) {
+			@Override
+			public void run()
+			{
+				try {
+					in.read();
+				} catch (IOException ex) {
+					// closed
+				}
+				evaluator.stop();
+			}
+		};
+		watcher.setDaemon(true);
+
+		long deadline = request.time > 0 ? System.currentTimeMillis() + request.time : 0;
+		watcher.start();
+		evaluator.evaluate(request.root, deadline, request.numSimulations);
+
+		RootStatistics statistics = new RootStatistics(request.root.boardSize * request.root.boardSize);
+		statistics.add(request.root);
+		out.writeBoolean(true);
+		statistics.write(out);
+		out.flush();
+
+		// make sure the watcher doesn't stop the next search
+		socket.close();
+		try {
+			watcher.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void writeRequest(DataOutput out, AnalysisNode root, int numSimulations, long time) throws IOException
+	{
+		Goban goban = root.getGoban();
+		int size = goban.getBoardSize();
+		out.writeInt(MAGIC);
+		out.writeInt(size);
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++)
+				out.writeByte(LightGoban.toByte(goban.getStone(x, y)));
+		}
+		out.writeByte(LightGoban.toByte(root.movingColor));
+		out.writeDouble(root.komi);
+		out.writeInt(numSimulations);
+		out.writeLong(time);
+	}
+
+	static Request readRequest(DataInput in) throws IOException
+	{
+		if (in.readInt() != MAGIC)
+			throw new IOException("not a search request");
+		int size = in.readInt();
+		if (size < 1 || size > Zobrist.MAX_SIZE)
+			throw new IOException("illegal board size " + size);
+		LightGoban goban = new LightGoban(size);
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				BoardType stone = color(in.readByte());
+				if (stone != BoardType.EMPTY)
+					goban.putStone(x, y, stone);
+			}
+		}
+		BoardType movingColor = color(in.readByte());
+		if (movingColor == BoardType.EMPTY)
+			throw new IOException("illegal moving color");
+
+		Request request = new Request();
+		request.root = new AnalysisNode(goban, movingColor, in.readDouble());
+		request.numSimulations = in.readInt();
+		request.time = in.readLong();
+		if (request.time < 0)
+			throw new IOException("illegal time " + request.time);
+		if (request.time == 0 && request.numSimulations <= 0)
+			throw new IOException("illegal number of simulations " + request.numSimulations);
+		return request;
+	}
+
+	private static void writeError(DataOutputStream out, String message) throws IOException
+	{
+		out.writeBoolean(false);
+		out.writeUTF(message == null ? "search failed" : message);
+		out.flush();
+	}
+
+	/**
+	 * Read the answer to a request for a board with <code>numPoints</code>
+	 * points.
+	 * 
+	 * @throws IOException
+	 *             if the server reports an error.
+	 */
+	static RootStatistics readResponse(DataInput in, int numPoints) throws IOException
+	{
+		if (!in.readBoolean())
+			throw new IOException("search failed: " + in.readUTF());
+		return RootStatistics.read(in, numPoints);
+	}
+
+	private static BoardType color(byte b) throws IOException
+	{
+		if (b < LightGoban.EMPTY || b > LightGoban.WHITE)
+			throw new IOException("illegal color " + b);
+		return LightGoban.toBoardType(b);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int port = 7171;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port"))
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-threads"))
+				numThreads = Integer.parseInt(args[++i]);
+			else {
+				System.err.println("usage: SearchServer [-port n] [-threads n]");
+				System.exit(1);
+			}
+		}
+
+		SearchServer server = new SearchServer(port);
+		Evaluator.parameters.numThreads = numThreads;
+		try {
+			server.evaluator.getMetrics().register("SearchServer:" + server.getPort());
+		} catch (JMException ex) {
+			logger.log(Level.WARNING, "search metrics not registered", ex);
+		}
+		System.out.println("listening on port " + server.getPort());
+		System.out.flush();
+		server.run();
+	}
+}
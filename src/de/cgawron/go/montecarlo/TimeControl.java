@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import de.cgawron.go.Goban.BoardType;
+
+/**
+ * The clock of a game and the policy how much of it to spend on a move. The
+ * settings correspond to the GTP commands <code>time_settings</code>,
+ * <code>kgs-time_settings</code> and <code>time_left</code>; all times are
+ * in seconds.
+ *
+ * In main time, the remaining time is spread over the moves expected until
+ * the end of the game, estimated from the number of empty points, and the
+ * byo-yomi time of one move is added. In byo-yomi, the time of the period
+ * is spread over the stones left in it. A safety margin is kept for the
+ * network lag.
+ *
+ * @author Christian Gawron
+ */
+public class TimeControl
+{
+	/** The kinds of byo-yomi. */
+	public enum ByoYomi {
+		/** No byo-yomi, the game is lost when the main time is used up. */
+		NONE,
+		/** A number of stones has to be played in each period. */
+		CANADIAN,
+		/** A number of periods, each move has to be played within a period. */
+		JAPANESE
+	}
+
+	/** The fraction of the allocated time actually used. */
+	private static final double SAFETY_FACTOR = 0.9;
+
+	/** The time (in seconds) reserved for the lag per move. */
+	private static final double LAG = 0.3;
+
+	/** The minimal number of moves the main time is spread over. */
+	private static final int MIN_MOVES_LEFT = 15;
+
+	private boolean limited = false;
+	private ByoYomi byoYomi = ByoYomi.NONE;
+	private double mainTime;
+	private double byoYomiTime;
+	private int byoYomiStones;
+
+	/** The time left, indexed by the color constants of LightGoban. */
+	private final double[] timeLeft = new double[3];
+	/** The stones (or Japanese periods) left in byo-yomi, 0 in main time. */
+	private final int[] stonesLeft = new int[3];
+
+	/**
+	 * Set Canadian byo-yomi as with the GTP command
+	 * <code>time_settings</code>. A byo-yomi time of 0 means no byo-yomi,
+	 * i.e. absolute time; a byo-yomi time greater than 0 with 0 stones means
+	 * no time limit.
+	 */
+	public void setTimeSettings(double mainTime, double byoYomiTime, int byoYomiStones)
+	{
+		if (byoYomiTime > 0 && byoYomiStones == 0) {
+			limited = false;
+			return;
+		}
+		set(byoYomiTime > 0 ? ByoYomi.CANADIAN : ByoYomi.NONE, mainTime, byoYomiTime, byoYomiStones);
+	}
+
+	/**
+	 * Set absolute time, i.e. only main time.
+	 */
+	public void setAbsolute(double mainTime)
+	{
+		set(ByoYomi.NONE, mainTime, 0, 0);
+	}
+
+	/**
+	 * Set Japanese byo-yomi with <code>periods</code> periods of
+	 * <code>periodTime</code> seconds each.
+	 */
+	public void setJapanese(double mainTime, double periodTime, int periods)
+	{
+		set(ByoYomi.JAPANESE, mainTime, periodTime, periods);
+	}
+
+	/**
+	 * Remove the time limit.
+	 */
+	public void setNone()
+	{
+		limited = false;
+	}
+
+	private void set(ByoYomi byoYomi, double mainTime, double byoYomiTime, int byoYomiStones)
+	{
+		this.limited = true;
+		this.byoYomi = byoYomi;
+		this.mainTime = mainTime;
+		this.byoYomiTime = byoYomiTime;
+		this.byoYomiStones = byoYomiStones;
+		for (byte color = LightGoban.BLACK; color <= LightGoban.WHITE; color++) {
+			timeLeft[color] = mainTime;
+			stonesLeft[color] = 0;
+			if (mainTime <= 0 && byoYomi != ByoYomi.NONE) {
+				timeLeft[color] = byoYomiTime;
+				stonesLeft[color] = byoYomiStones;
+			}
+		}
+	}
+
+	/**
+	 * Set the clock of a player as with the GTP command
+	 * <code>time_left</code>.
+	 *
+	 * @param stones
+	 *            the stones left in the current byo-yomi period (the periods
+	 *            left for Japanese byo-yomi), 0 in main time.
+	 */
+	public void setTimeLeft(BoardType color, double time, int stones)
+	{
+		byte c = LightGoban.toByte(color);
+		timeLeft[c] = time;
+		stonesLeft[c] = stones;
+	}
+
+	/**
+	 * Account for the time used by a move of <code>color</code>, if the
+	 * controller doesn't send <code>time_left</code>.
+	 */
+	public void used(BoardType color, double time)
+	{
+		if (!limited)
+			return;
+		byte c = LightGoban.toByte(color);
+		timeLeft[c] -= time;
+		if (stonesLeft[c] == 0) {
+			// the main time is over, byo-yomi starts
+			if (timeLeft[c] <= 0 && byoYomi != ByoYomi.NONE) {
+				timeLeft[c] = byoYomiTime;
+				stonesLeft[c] = byoYomiStones;
+			}
+		}
+		else if (byoYomi == ByoYomi.CANADIAN) {
+			if (--stonesLeft[c] == 0) {
+				timeLeft[c] = byoYomiTime;
+				stonesLeft[c] = byoYomiStones;
+			}
+		}
+		else if (byoYomi == ByoYomi.JAPANESE) {
+			if (timeLeft[c] <= 0 && stonesLeft[c] > 1)
+				stonesLeft[c]--;
+			timeLeft[c] = byoYomiTime;
+		}
+	}
+
+	public boolean isLimited()
+	{
+		return limited;
+	}
+
+	/**
+	 * Get the time to spend on a move.
+	 *
+	 * @param emptyPoints
+	 *            the number of empty points, used to estimate the number of
+	 *            moves left.
+	 * @return the time in milliseconds, or 0 if there is no time limit.
+	 */
+	public long timeForMove(BoardType color, int emptyPoints)
+	{
+		if (!limited)
+			return 0;
+
+		byte c = LightGoban.toByte(color);
+		double time;
+		if (stonesLeft[c] > 0) {
+			if (byoYomi == ByoYomi.JAPANESE)
+				time = timeLeft[c];
+			else
+				time = timeLeft[c] / stonesLeft[c];
+		}
+		else {
+			int movesLeft = Math.max(MIN_MOVES_LEFT, emptyPoints / 3);
+			time = timeLeft[c] / movesLeft;
+			if (byoYomi == ByoYomi.CANADIAN)
+				time += byoYomiTime / byoYomiStones;
+			else if (byoYomi == ByoYomi.JAPANESE)
+				time += byoYomiTime;
+		}
+		time = SAFETY_FACTOR * time - LAG;
+		return Math.max(50, (long) (1000 * time));
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TimeControl [limited=" + limited + ", byoYomi=" + byoYomi
+		                + ", mainTime=" + mainTime + ", byoYomiTime=" + byoYomiTime
+		                + ", byoYomiStones=" + byoYomiStones + "]";
+	}
+}
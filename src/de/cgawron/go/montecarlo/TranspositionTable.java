@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed capacity table of {@link AnalysisNode}s, indexed by
+ * {@link AnalysisNode#getKey()}. It allows positions reached by different move
+ * orders to share their statistics.
+ *
+ * The table is divided into buckets of {@value #BUCKET_SIZE} slots. If a
+ * bucket is full, the node with the fewest visits is replaced. Lookups don't
+ * lock; insertions lock one of a fixed number of stripes.
+ *
+ * @author Christian Gawron
+ */
+public class TranspositionTable
+{
+	static final int BUCKET_SIZE = 4;
+
+	private static final int NUM_LOCKS = 64;
+
+	private final AtomicReferenceArray<AnalysisNode> slots;
+	private final int mask;
+	private final Object[] locks = new Object[NUM_LOCKS];
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Create a table with <code>capacity</code> slots. The capacity is rounded
+	 * down to a power of two of at least {@value #BUCKET_SIZE}. The table only
+	 * holds references to nodes of the tree, whose size is limited by
+	 * {@link Evaluator.EvaluatorParameters#treeMemory}.
+	 */
+	public TranspositionTable(int capacity)
+	{
+		int n = Math.min(Integer.highestOneBit(Math.max(capacity, BUCKET_SIZE)), 1 << 30);
+		slots = new AtomicReferenceArray<AnalysisNode>(n);
+		mask = n - 1;
+		for (int i = 0; i < NUM_LOCKS; i++)
+			locks[i] = new Object();
+	}
+
+	private int bucket(long key)
+	{
+		int h = (int) (key ^ (key >>> 32));
+		return h & mask & ~(BUCKET_SIZE - 1);
+	}
+
+	/**
+	 * Get the node stored for <code>key</code>.
+	 *
+	 * @return the node or null if no node with this key is stored.
+	 */
+	public AnalysisNode get(long key)
+	{
+		int b = bucket(key);
+		for (int i = b; i < b + BUCKET_SIZE; i++) {
+			AnalysisNode node = slots.get(i);
+			if (node != null && node.getKey() == key)
+				return node;
+		}
+		return null;
+	}
+
+	/**
+	 * Store a node unless a node with the same key is already present. If the
+	 * bucket is full, the node with the fewest visits is replaced.
+	 *
+	 * @return the node already present, or <code>node</code> if it was stored
+	 *         or dropped because all nodes in the bucket are visited more
+	 *         often.
+	 */
+	public AnalysisNode putIfAbsent(AnalysisNode node)
+	{
+		long key = node.getKey();
+		int b = bucket(key);
+		synchronized (locks[(b / BUCKET_SIZE) & (NUM_LOCKS - 1)]) {
+			int free = -1;
+			int victim = -1;
+			int minVisits = Integer.MAX_VALUE;
+			for (int i = b; i < b + BUCKET_SIZE; i++) {
+				AnalysisNode n = slots.get(i);
+				if (n == null) {
+					if (free < 0)
+						free = i;
+				}
+				else if (n.getKey() == key) {
+					return n;
+				}
+				else if (n.getVisits() < minVisits) {
+					victim = i;
+					minVisits = n.getVisits();
+				}
+			}
+
+			if (free >= 0) {
+				slots.set(free, node);
+				size.incrementAndGet();
+			}
+			else if (minVisits <= node.getVisits()) {
+				slots.set(victim, node);
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * Remove all nodes.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < slots.length(); i++)
+			slots.set(i, null);
+		size.set(0);
+	}
+
+	/**
+	 * Get the number of stored nodes.
+	 */
+	public int size()
+	{
+		return size.get();
+	}
+
+	/**
+	 * Get the number of slots.
+	 */
+	public int capacity()
+	{
+		return slots.length();
+	}
+}
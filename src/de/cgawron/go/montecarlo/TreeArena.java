@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import de.cgawron.go.Goban.BoardType;
+
+/**
+ * A search tree stored in parallel arrays instead of {@link AnalysisNode}
+ * objects. A node is an index into the arrays. The children of a node are
+ * allocated as one block when the node is expanded, sorted by their prior
+ * like the candidates of {@link AnalysisNode#createCandidates}, so
+ * progressive widening only has to limit how many of them are considered.
+ *
+ * The arena is allocated once with a fixed capacity and emptied by
+ * {@link #reset}, so a long running search neither grows the heap nor
+ * creates garbage. If the arena is full, leaves are no longer expanded.
+ *
+ * The statistics are updated by several threads without locking. Sums of
+ * values and scores are stored as fixed point numbers, so they can be added
+ * atomically.
+ *
+ * @author Christian Gawron
+ */
+class TreeArena
+{
+	private static Logger logger = Logger.getLogger(TreeArena.class.getName());
+
+	/** The value of firstChild for a node which has not been expanded. */
+	static final int LEAF = -1;
+	/** The value of firstChild while a thread is expanding the node. */
+	private static final int EXPANDING = -2;
+
+	/** The scale of the fixed point sums. */
+	private static final double FIXED = 1 << 20;
+
+	private final int capacity;
+	private final int[] move;
+	private final float[] prior;
+	private final int[] childCount;
+	private final AtomicIntegerArray firstChild;
+	private final AtomicIntegerArray visits;
+	private final AtomicIntegerArray virtualLoss;
+	private final AtomicLongArray valueSum;
+	private final AtomicLongArray scoreSum;
+	private final AtomicIntegerArray raveVisits;
+	private final AtomicLongArray raveValueSum;
+	private final AtomicInteger size = new AtomicInteger();
+
+	/** The position of the root. */
+	private LightGoban rootBoard;
+	private byte rootColor;
+	private boolean rootPass;
+	private int rootMoveNo;
+	private double komi;
+
+	TreeArena(int capacity)
+	{
+		this.capacity = capacity;
+		move = new int[capacity];
+		prior = new float[capacity];
+		childCount = new int[capacity];
+		firstChild = new AtomicIntegerArray(capacity);
+		visits = new AtomicIntegerArray(capacity);
+		virtualLoss = new AtomicIntegerArray(capacity);
+		valueSum = new AtomicLongArray(capacity);
+		scoreSum = new AtomicLongArray(capacity);
+		raveVisits = new AtomicIntegerArray(capacity);
+		raveValueSum = new AtomicLongArray(capacity);
+	}
+
+	/**
+	 * Empty the arena and start a new search at the position of
+	 * <code>root</code>. This takes constant time, nodes are cleared when
+	 * they are allocated again.
+	 */
+	void reset(AnalysisNode root, LightGoban board)
+	{
+		clear(0);
+		size.set(1);
+		move[0] = root.getMoveIndex();
+		prior[0] = 1;
+
+		rootBoard = board;
+		rootColor = LightGoban.toByte(root.movingColor);
+		rootPass = root.isPass();
+		rootMoveNo = root.moveNo;
+		komi = root.komi;
+	}
+
+	private void clear(int n)
+	{
+		childCount[n] = 0;
+		firstChild.set(n, LEAF);
+		visits.set(n, 0);
+		virtualLoss.set(n, 0);
+		valueSum.set(n, 0);
+		scoreSum.set(n, 0);
+		raveVisits.set(n, 0);
+		raveValueSum.set(n, 0);
+	}
+
+	/**
+	 * Get the number of nodes in use.
+	 */
+	int size()
+	{
+		return Math.min(size.get(), capacity);
+	}
+
+	int capacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Run one simulation: descend from the root, expand the leaf reached,
+	 * play it out and back up the result.
+	 */
+	void simulate(Ownership.ThreadOwnership ownership)
+	{
+		Playout playout = Playout.get();
+		LightGoban board = playout.getTreeBoard(rootBoard);
+		int maxMoves = Evaluator.parameters.maxMoves;
+		int[] path = playout.getPath(maxMoves + 1);
+		path[0] = 0;
+		int depth = 0;
+		byte color = rootColor;
+		boolean terminal = false;
+		SearchMetrics.ThreadMetrics metrics = SearchMetrics.get();
+		long time = System.nanoTime();
+		long expansion = 0;
+		boolean backedUp = false;
+
+		try {
+			while (rootMoveNo + depth < maxMoves) {
+				int node = path[depth];
+				if (firstChild.get(node) == LEAF) {
+					long start = System.nanoTime();
+					expand(node, board, color);
+					expansion = System.nanoTime() - start;
+					break;
+				}
+				if (firstChild.get(node) == EXPANDING)
+					break;
+
+				int child = select(node);
+				path[++depth] = child;
+				virtualLoss.incrementAndGet(child);
+				board.make(move[child], color);
+				color = LightGoban.opposite(color);
+				if (depth > 1 && move[child] == LightGoban.NONE && move[path[depth - 1]] == LightGoban.NONE) {
+					terminal = true;
+					break;
+				}
+			}
+
+			int leaf = path[depth];
+			BoardType toMove = LightGoban.toBoardType(color);
+			long now = System.nanoTime();
+			metrics.selectionNanos += now - time - expansion;
+			metrics.expansionNanos += expansion;
+			metrics.depth(depth);
+			time = now;
+			double score;
+			if (terminal) {
+				score = board.areaScore(ownership != null ? ownership.owner : null) - komi;
+				if (ownership != null)
+					ownership.record(score);
+				metrics.playout(0);
+			}
+			else {
+				boolean pass = depth == 0 ? rootPass : move[leaf] == LightGoban.NONE;
+				score = playout.run(board, toMove, pass ? 1 : 0, rootMoveNo + depth, komi, ownership);
+				metrics.playout(playout.getNumMoves());
+			}
+			now = System.nanoTime();
+			metrics.playoutNanos += now - time;
+			time = now;
+
+			// the value of a node is the value for the player who moved into it
+			if (toMove == BoardType.BLACK)
+				score = -score;
+			double exp = Math.exp(Evaluator.parameters.steepness * score);
+			double value = exp / (1 + exp);
+			update(path, depth, value, score);
+			backedUp = true;
+			if (Evaluator.parameters.raveEquivalence > 0)
+				updateRave(path, depth, value, terminal ? null : playout);
+			metrics.backupNanos += System.nanoTime() - time;
+		} finally {
+			// a failed simulation must not keep its virtual loss
+			if (!backedUp) {
+				for (int i = 1; i <= depth; i++)
+					virtualLoss.decrementAndGet(path[i]);
+			}
+			while (board.getDepth() > 0)
+				board.unmake();
+		}
+	}
+
+	/**
+	 * Expand <code>node</code>, whose position is on <code>board</code>.
+	 * Only one thread expands a node; others treat it as a leaf meanwhile.
+	 */
+	private void expand(int node, LightGoban board, byte color)
+	{
+		if (!firstChild.compareAndSet(node, LEAF, EXPANDING))
+			return;
+
+		try {
+			int numPoints = board.numPoints;
+			if (size.get() + numPoints + 1 > capacity)
+				return;
+
+			long key = board.zobristKey();
+			int boardSize = board.getBoardSize();
+			long[] order = Playout.get().getOrder(numPoints);
+			int n = 0;
+			for (int p = 0; p < numPoints; p++) {
+				double suitability = board.suitability(p, color);
+				if (suitability <= 0)
+					continue;
+				float prior = AnalysisNode.prior(suitability, p, move[node], boardSize);
+				long tie = (key ^ Zobrist.key(p, BoardType.BLACK)) >>> 48;
+				order[n++] = (~Float.floatToIntBits(prior) & 0xffffffffL) << 32 | tie << 16 | p;
+			}
+			Arrays.sort(order, 0, n);
+
+			int first = size.getAndAdd(n + 1);
+			if (first + n + 1 > capacity) {
+				logger.fine("arena full, not expanding " + node);
+				return;
+			}
+			// the pass comes first, so widening never leaves it out
+			clear(first);
+			move[first] = LightGoban.NONE;
+			prior[first] = 0;
+			// like the pass node in Evaluator.createNode
+			valueSum.set(first, fixed(0.1));
+			for (int i = 0; i < n; i++) {
+				int c = first + 1 + i;
+				clear(c);
+				move[c] = (int) (order[i] & 0xffff);
+				prior[c] = Float.intBitsToFloat(~(int) (order[i] >>> 32));
+			}
+
+			childCount[node] = n + 1;
+			firstChild.set(node, first);
+		} finally {
+			// a node that was not expanded is a leaf again
+			if (firstChild.get(node) == EXPANDING)
+				firstChild.set(node, LEAF);
+		}
+	}
+
+	/**
+	 * Select a child of <code>node</code> like
+	 * {@link AnalysisNode#selectRandomUCTMove()}, considering only the first
+	 * {@link Evaluator#allowedChildren(int)} children.
+	 */
+	private int select(int node)
+	{
+		int first = firstChild.get(node);
+		int count = Math.min(childCount[node], Evaluator.allowedChildren(visits.get(node)));
+		int virtualLossWeight = Evaluator.parameters.virtualLoss;
+		int raveEquivalence = Evaluator.parameters.raveEquivalence;
+		double firstPlayUrgency = Evaluator.parameters.firstPlayUrgency;
+
+		int total = 0;
+		for (int c = first; c < first + count; c++)
+			total += visits.get(c) + virtualLossWeight * virtualLoss.get(c);
+
+		int best = first;
+		double max = -1;
+		for (int c = first; c < first + count; c++) {
+			int n = visits.get(c) + virtualLossWeight * virtualLoss.get(c);
+			int rave = raveEquivalence > 0 ? raveVisits.get(c) : 0;
+			double value;
+			if (n == 0 && rave == 0) {
+				value = 1 + firstPlayUrgency + 0.001 * prior[c] + Math.sqrt(2 * Math.log(Math.max(total, 1)));
+			}
+			else if (rave == 0) {
+				value = 1 + getValueSum(c) / n + Math.sqrt(2 * Math.log(total) / n);
+			}
+			else {
+				double beta = Math.sqrt(raveEquivalence / (3.0 * n + raveEquivalence));
+				double mean = n > 0 ? getValueSum(c) / n : 0;
+				value = 1 + (1 - beta) * mean + beta * getRaveValue(c)
+				        + Math.sqrt(2 * Math.log(Math.max(total, 1)) / Math.max(n, 1));
+			}
+			if (value > max) {
+				best = c;
+				max = value;
+			}
+		}
+		return best;
+	}
+
+	private void update(int[] path, int depth, double value, double score)
+	{
+		for (int i = depth; i >= 0; i--) {
+			int node = path[i];
+			valueSum.addAndGet(node, fixed(value));
+			scoreSum.addAndGet(node, fixed(score));
+			visits.incrementAndGet(node);
+			if (i > 0)
+				virtualLoss.decrementAndGet(node);
+			value = 1 - value;
+			score = -score;
+		}
+	}
+
+	/**
+	 * Update the all-moves-as-first statistics like
+	 * {@link Evaluator#updateRave}.
+	 */
+	private void updateRave(int[] path, int depth, double value, Playout playout)
+	{
+		byte[] first = Playout.get().getFirstColors(rootBoard.numPoints);
+		if (playout != null) {
+			for (int m = playout.getNumMoves() - 1; m >= 0; m--) {
+				int p = playout.getMove(m);
+				if (p != LightGoban.NONE)
+					first[p] = playout.getMoveColor(m);
+			}
+		}
+
+		byte color = (depth & 1) == 0 ? rootColor : LightGoban.opposite(rootColor);
+		for (int j = depth - 1; j >= 0; j--) {
+			color = LightGoban.opposite(color);
+			int p = move[path[j + 1]];
+			if (p != LightGoban.NONE)
+				first[p] = color;
+
+			int node = path[j];
+			int firstChild = this.firstChild.get(node);
+			if (firstChild >= 0) {
+				for (int c = firstChild; c < firstChild + childCount[node]; c++) {
+					int q = move[c];
+					if (q != LightGoban.NONE && first[q] == color) {
+						raveValueSum.addAndGet(c, fixed(value));
+						raveVisits.incrementAndGet(c);
+					}
+				}
+			}
+			value = 1 - value;
+		}
+	}
+
+	private static long fixed(double value)
+	{
+		return Math.round(value * FIXED);
+	}
+
+	int getFirstChild(int node)
+	{
+		return firstChild.get(node);
+	}
+
+	int getChildCount(int node)
+	{
+		return firstChild.get(node) >= 0 ? childCount[node] : 0;
+	}
+
+	/**
+	 * Get the index of the move leading to <code>node</code>, or
+	 * {@link LightGoban#NONE} for a pass.
+	 */
+	int getMove(int node)
+	{
+		return move[node];
+	}
+
+	int getVisits(int node)
+	{
+		return visits.get(node);
+	}
+
+	double getValueSum(int node)
+	{
+		return valueSum.get(node) / FIXED;
+	}
+
+	double getScoreSum(int node)
+	{
+		return scoreSum.get(node) / FIXED;
+	}
+
+	int getRaveVisits(int node)
+	{
+		return raveVisits.get(node);
+	}
+
+	double getRaveValue(int node)
+	{
+		return raveValueSum.get(node) / FIXED / raveVisits.get(node);
+	}
+}
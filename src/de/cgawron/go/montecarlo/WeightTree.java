@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import java.util.Arrays;
+
+/**
+ * A Fenwick tree of non-negative weights, used to sample an index with a
+ * probability proportional to its weight. Changing a weight and sampling are
+ * O(log n).
+ *
+ * The weights are integers, so the sums don't drift when weights are changed
+ * many times. Suitabilities are converted by {@link #weight(double)}.
+ *
+ * @author Christian Gawron
+ */
+class WeightTree
+{
+	/** The resolution used to convert suitabilities to weights. */
+	static final int SCALE = 1024;
+
+	private final int size;
+	private final long[] tree;
+	private final long[] weights;
+	private final int highBit;
+
+	WeightTree(int size)
+	{
+		this.size = size;
+		this.tree = new long[size + 1];
+		this.weights = new long[size];
+		this.highBit = Integer.highestOneBit(Math.max(size, 1));
+	}
+
+	/**
+	 * Convert a suitability to a weight. Positive suitabilities get a weight
+	 * of at least 1.
+	 */
+	static long weight(double suitability)
+	{
+		if (suitability <= 0)
+			return 0;
+		else
+			return Math.max(1, Math.round(suitability * SCALE));
+	}
+
+	/**
+	 * Set all weights to 0.
+	 */
+	void clear()
+	{
+		Arrays.fill(tree, 0);
+		Arrays.fill(weights, 0);
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	long get(int i)
+	{
+		return weights[i];
+	}
+
+	void set(int i, long weight)
+	{
+		long delta = weight - weights[i];
+		if (delta == 0)
+			return;
+		weights[i] = weight;
+		for (int j = i + 1; j <= size; j += j & -j)
+			tree[j] += delta;
+	}
+
+	/**
+	 * Get the sum of all weights.
+	 */
+	long total()
+	{
+		long sum = 0;
+		for (int j = size; j > 0; j -= j & -j)
+			sum += tree[j];
+		return sum;
+	}
+
+	/**
+	 * Find the index <code>i</code> such that the sum of the weights before
+	 * <code>i</code> is at most <code>r</code> and the sum including
+	 * <code>i</code> exceeds <code>r</code>.
+	 *
+	 * @param r
+	 *            a value in <code>[0, total())</code>.
+	 */
+	int sample(long r)
+	{
+		int pos = 0;
+		for (int step = highBit; step > 0; step >>= 1) {
+			int next = pos + step;
+			if (next <= size && tree[next] <= r) {
+				pos = next;
+				r -= tree[next];
+			}
+		}
+		return pos;
+	}
+}
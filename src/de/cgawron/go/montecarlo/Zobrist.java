@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 Christian Gawron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cgawron.go.montecarlo;
+
+import de.cgawron.go.Goban.BoardType;
+
+/**
+ * Random constants for 64 bit Zobrist hashing. The key of a position is the
+ * XOR of the constants of all stones on the board; in contrast to
+ * {@link de.cgawron.go.Goban#zobristHash()} it is not invariant under
+ * symmetry operations, but it can be updated incrementally and collides far
+ * less often.
+ *
+ * Points are addressed by their index <code>x * boardSize + y</code>.
+ *
+ * @author Christian Gawron
+ */
+public final class Zobrist
+{
+	/** The maximal board size supported. */
+	public static final int MAX_SIZE = 19;
+
+	/** The maximal number of points supported. */
+	public static final int MAX_POINTS = MAX_SIZE * MAX_SIZE;
+
+	private static final long[] BLACK_KEYS = new long[MAX_POINTS];
+	private static final long[] WHITE_KEYS = new long[MAX_POINTS];
+	private static final long[] KO_KEYS = new long[MAX_POINTS];
+
+	/** XORed into the key of a node if white is to move. */
+	public static final long WHITE_TO_MOVE;
+
+	static {
+		// SplitMix64 with a fixed seed, so keys are reproducible
+		long seed = 0x5ca1ab1e0ddba11L;
+		for (int i = 0; i < MAX_POINTS; i++) {
+			seed += 0x9e3779b97f4a7c15L;
+			BLACK_KEYS[i] = mix(seed);
+			seed += 0x9e3779b97f4a7c15L;
+			WHITE_KEYS[i] = mix(seed);
+		}
+		seed += 0x9e3779b97f4a7c15L;
+		WHITE_TO_MOVE = mix(seed);
+		for (int i = 0; i < MAX_POINTS; i++) {
+			seed += 0x9e3779b97f4a7c15L;
+			KO_KEYS[i] = mix(seed);
+		}
+	}
+
+	private Zobrist()
+	{
+	}
+
+	/**
+	 * The SplitMix64 finalizer, which maps similar values to unrelated ones.
+	 */
+	static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Get the key of a stone of <code>color</code> at point index
+	 * <code>p</code>.
+	 */
+	public static long key(int p, BoardType color)
+	{
+		switch (color) {
+		case BLACK:
+			return BLACK_KEYS[p];
+		case WHITE:
+			return WHITE_KEYS[p];
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Get the key of the ko point <code>p</code>, which may not be played
+	 * because of a simple ko. It is 0 if <code>p</code> is
+	 * {@link LightGoban#NONE}.
+	 */
+	public static long ko(int p)
+	{
+		return p == LightGoban.NONE ? 0 : KO_KEYS[p];
+	}
+
+	/**
+	 * Get the key distinguishing the side to move.
+	 */
+	public static long toMove(BoardType movingColor)
+	{
+		return movingColor == BoardType.WHITE ? WHITE_TO_MOVE : 0;
+	}
+}
@@ -3,10 +3,12 @@
  */
 package de.cgawron.go.montecarlo;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
 import java.util.logging.Logger;
 
 import org.junit.Test;
@@ -161,4 +163,85 @@ public class AnalysisGobanTest extends GobanTest
  		}
  	}
  	
+ 	@Test
+ 	public void testZobristKey() throws Exception
+ 	{
+ 		int size = 7;
+ 		Random random = new Random(1);
+ 		AnalysisGoban goban = new AnalysisGoban(size);
+ 		BoardType color = BoardType.BLACK;
+ 		for (int i = 0; i < 200; i++) {
+ 			Point p = new Point(random.nextInt(size), random.nextInt(size));
+ 			if (goban.move(p, color))
+ 				color = color.opposite();
+ 			assertEquals("Check incremental key after move " + i, fullKey(goban), goban.zobristKey());
+ 		}
+
+ 		AnalysisGoban clone = goban.clone();
+ 		assertEquals("Check key of clone", goban.zobristKey(), clone.zobristKey());
+ 		assertEquals("Check that clone equals goban", goban, clone);
+ 	
+ 		AnalysisGoban setup = new AnalysisGoban(getGoban("suitability1.sgf"));
+ 		assertEquals("Check key after setup", fullKey(setup), setup.zobristKey());
+ 	}
+
+ 	@Test
+ 	public void testAtariCount() throws Exception
+ 	{
+ 		int size = 7;
+ 		Random random = new Random(2);
+ 		AnalysisGoban goban = new AnalysisGoban(size);
+ 		BoardType color = BoardType.BLACK;
+ 		for (int i = 0; i < 200; i++) {
+ 			Point p = new Point(random.nextInt(size), random.nextInt(size));
+ 			if (goban.move(p, color))
+ 				color = color.opposite();
+ 			goban = goban.clone();
+ 			for (BoardType c : new BoardType[] { BoardType.BLACK, BoardType.WHITE }) {
+ 				int atari = 0;
+ 				for (Cluster cluster : goban.clusters) {
+ 					if (cluster.getColor() == c && ((Chain) cluster).getLiberties().size() == 1)
+ 						atari += cluster.size();
+ 				}
+ 				assertEquals("Check atari count of " + c + " after move " + i, atari, goban.getAtariCount(c));
+ 			}
+ 		}
+ 	}
+
+ 	@Test
+ 	public void testChineseScore() throws Exception
+ 	{
+ 		int size = 7;
+ 		Random random = new Random(3);
+ 		AnalysisGoban goban = new AnalysisGoban(size);
+ 		BoardType color = BoardType.BLACK;
+ 		for (int i = 0; i < 300; i++) {
+ 			Point p = new Point(random.nextInt(size), random.nextInt(size));
+ 			if (goban.move(p, color))
+ 				color = color.opposite();
+ 			goban = goban.clone();
+
+ 			LightGoban reference = new LightGoban(goban);
+ 			double[][] expected = new double[size][size];
+ 			double[][] territory = new double[size][size];
+ 			assertEquals("Check score after move " + i, reference.chineseScore(expected), goban.chineseScore(territory));
+ 			for (int x = 0; x < size; x++)
+ 				assertArrayEquals("Check territory after move " + i, expected[x], territory[x], 0);
+ 			int black = 0;
+ 			for (Point q : Point.all(size))
+ 				if (goban.getStone(q) == BoardType.BLACK)
+ 					black++;
+ 			assertEquals("Check black stones after move " + i, black, goban.getStoneCount(BoardType.BLACK));
+ 		}
+ 	}
+
+ 	private long fullKey(AnalysisGoban goban)
+ 	{
+ 		long key = 0;
+ 		int size = goban.getBoardSize();
+ 		for (int x = 0; x < size; x++)
+ 			for (int y = 0; y < size; y++)
+ 				key ^= Zobrist.key(x * size + y, goban.getStone(x, y));
+ 		return key;
+ 	}
 }
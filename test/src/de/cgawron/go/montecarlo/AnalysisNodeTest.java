@@ -172,7 +172,34 @@ public class AnalysisNodeTest extends GobanTest
  	}
  	
  	@Test
-	public void testSimulation() 
+ 	public void testConcurrentUpdate() throws Exception
+ 	{
+ 		final AnalysisNode node = new AnalysisNode(new AnalysisGoban(7), BoardType.BLACK);
+ 		final int numThreads = 4;
+ 		final int numUpdates = 10000;
+ 		Thread[] threads = new Thread[numThreads];
+ 		for (int t = 0; t < numThreads; t++) {
+ 			threads[t] = new Thread() {
+ 				public void run() {
+ 					for (int i = 0; i < numUpdates; i++) {
+ 						node.addVirtualLoss();
+ 						node.update(0.5, 1);
+ 						node.removeVirtualLoss();
+ 					}
+ 				}
+ 			};
+ 			threads[t].start();
+ 		}
+ 		for (Thread thread : threads)
+ 			thread.join();
+
+ 		assertEquals("Check number of visits", numThreads * numUpdates, node.getVisits());
+ 		assertEquals("Check value", 0.5, node.getValue(), 1e-9);
+ 		assertEquals("Check score", 1, node.getScore(), 1e-9);
+ 	}
+
+ 	@Test
+	public void testSimulation()
 	{
  		int size = 7;
  		AnalysisNode[] sequence = new AnalysisNode[200];
@@ -0,0 +1,106 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.cgawron.go.Goban.BoardType;
+
+/**
+ * Test class for BitGoban
+ * @author Christian Gawron
+ */
+public class BitGobanTest extends GobanTest 
+{
+	public BitGobanTest() {
+		new Evaluator();
+	}
+
+	@Test
+	public void testCapture() 
+	{
+		BitGoban goban = new BitGoban(9);
+		goban.move(0, 0, BoardType.BLACK);
+		goban.move(1, 0, BoardType.WHITE);
+		goban.move(0, 1, BoardType.WHITE);
+		assertEquals("Check that stone at [0, 0] is captured", BoardType.EMPTY, goban.getStone(0, 0));
+		assertEquals("Check number of captured stones", 1, goban.getBlackCaptured());
+	}
+
+	@Test
+	public void testKo() throws Exception
+	{
+		BitGoban goban = new BitGoban(getGoban("ko1.sgf"));
+		LightGoban reference = new LightGoban(getGoban("ko1.sgf"));
+		byte black = LightGoban.BLACK;
+		assertEquals("Check capture", reference.play(2 * 5 + 1, black), goban.play(2 * 5 + 1, black));
+		for (int p = 0; p < 25; p++)
+			assertEquals("Check legality of " + p, reference.isLegal(p, LightGoban.WHITE), goban.isLegal(p, LightGoban.WHITE));
+	}
+
+	/**
+	 * Play random games on a BitGoban and a LightGoban and compare stones,
+	 * suitability and score.
+	 */
+	@Test
+	public void testRandomGames()
+	{
+		Random random = new Random(4711);
+		int[] points = new int[19 * 19];
+		for (int size = 9; size <= 19; size += 5) {
+			for (int game = 0; game < 5; game++) {
+				BitGoban goban = new BitGoban(size);
+				LightGoban reference = new LightGoban(size);
+				byte color = LightGoban.BLACK;
+				for (int move = 0; move < 2 * size * size; move++) {
+					int n = reference.emptyPoints(points);
+					assertEquals("Check number of empty points", n, goban.emptyPoints(new int[size * size]));
+					for (int i = 0; i < n; i++) {
+						// LightGoban only approximates the liberties after captures, so compare legality only
+						assertEquals("Check suitability of " + points[i] + " after move " + move + reference, 
+						             reference.suitability(points[i], color) > 0, goban.suitability(points[i], color) > 0);
+					}
+					int p = points[random.nextInt(n)];
+					if (reference.isLegal(p, color))
+						assertEquals("Check captures", reference.play(p, color), goban.play(p, color));
+					else {
+						reference.pass();
+						goban.pass();
+					}
+					for (int q = 0; q < size * size; q++)
+						assertEquals("Comparing " + q + " after move " + move, reference.getStone(q / size, q % size), goban.getStone(q / size, q % size));
+					color = LightGoban.opposite(color);
+				}
+				double[][] territory = new double[size][size];
+				double[][] expected = new double[size][size];
+				assertEquals("Check score", reference.chineseScore(expected), goban.chineseScore(territory));
+				for (int x = 0; x < size; x++)
+					for (int y = 0; y < size; y++)
+						assertEquals("Check territory", expected[x][y], territory[x][y], 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testPlayout() throws Exception
+	{
+		int size = 9;
+		Evaluator.parameters.bitboardPlayout = true;
+		try {
+			AnalysisNode root = new AnalysisNode(new AnalysisGoban(size), BoardType.BLACK, 0);
+			for (int i = 0; i < 10; i++) {
+				double score = Playout.get().run(root, null);
+				assertEquals("Playout uses a BitGoban", BitGoban.class, Playout.get().getBoard().getClass());
+				assertEquals("Score within board size", 0, score, size * size);
+			}
+		}
+		finally {
+			Evaluator.parameters.bitboardPlayout = false;
+		}
+	}
+}
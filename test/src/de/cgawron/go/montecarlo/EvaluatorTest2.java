@@ -4,14 +4,22 @@
 package de.cgawron.go.montecarlo;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.junit.Test;
 
 import de.cgawron.go.Goban;
 import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.Point;
 import de.cgawron.go.sgf.GameTree;
 
 /**
@@ -39,15 +47,325 @@ public class EvaluatorTest2
 	@Test
 	public void testCreateNode() {
 		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.wideningBase = 0;
 		
 		AnalysisNode root = new AnalysisNode(goban, movingColor);
 		evaluator.createNode(root);
 		//logger.info("root.children=" + root.children);
 		assertEquals("Number of children", 58, root.children.size());
-		assertEquals("Tree size", 1, evaluator.workingTree.size());
+		assertEquals("Tree size", 1, evaluator.transpositionTable.size());
 		AnalysisNode node = root.selectRandomUCTMove();
 		evaluator.createNode(node);
-		assertEquals("Tree size", 2, evaluator.workingTree.size());
+		assertEquals("Tree size", 2, evaluator.transpositionTable.size());
+	}
+
+	@Test
+	public void testWidening() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.wideningBase = 10;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.createNode(root);
+		assertEquals("Number of children", 10, root.children.size());
+		boolean pass = false;
+		for (AnalysisNode child : root.children)
+			pass |= child.isPass();
+		assertTrue("Pass is a child", pass);
+		for (int i = 0; i < 200; i++)
+			evaluator.evaluateSequenceByUCT(root, null);
+		assertEquals("Number of children after 200 simulations", Evaluator.allowedChildren(199), root.children.size());
+	}
+
+	@Test
+	public void testFirstPlayUrgency() {
+		Evaluator evaluator = new Evaluator();
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.createNode(root);
+		AnalysisNode good = null;
+		for (AnalysisNode child : root.children)
+			if (!child.isPass())
+				good = child;
+		good.updateRave(1);
+		assertSame("An unvisited child with a good RAVE value is tried first", good, root.selectRandomUCTMove());
+	}
+
+	@Test
+	public void testTreeMemory() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 2000;
+		Evaluator.parameters.earlyStopping = false;
+		Evaluator.parameters.treeMemory = 1;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+		assertEquals("Number of visits", 2000, root.getVisits());
+		long memory = evaluator.getMetrics().getTreeMemoryEstimate();
+		assertTrue("Tree memory is limited: " + memory, memory < (1 << 20) + (1 << 17));
+	}
+
+	@Test
+	public void testHeavyPlayoutLightTree() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.lightTree = true;
+		Evaluator.parameters.lightPlayout = false;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		for (int i = 0; i < 20; i++)
+			evaluator.evaluateSequenceByUCT(root, null);
+		assertEquals("Number of visits", 20, root.getVisits());
+		for (AnalysisNode child : root.children)
+			assertNull("Children don't have a goban", child.getGoban());
+	}
+
+	@Test
+	public void testDefaultWidening() {
+		Evaluator evaluator = new Evaluator();
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		LightGoban board = new LightGoban(goban);
+		evaluator.createNode(root, board);
+		int legal = 0;
+		for (int p = 0; p < board.numPoints; p++)
+			if (board.suitability(p, LightGoban.toByte(movingColor)) > 0)
+				legal++;
+		assertEquals("Number of children", Evaluator.allowedChildren(0), root.children.size());
+		assertTrue("Fewer children than legal moves", root.children.size() < legal);
+	}
+
+	@Test
+	public void testLightTree() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.lightTree = true;
+		
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		for (int i = 0; i < 100; i++)
+			evaluator.evaluateSequenceByUCT(root, null);
+		assertEquals("Number of visits", 100, root.getVisits());
+		for (AnalysisNode child : root.children) {
+			assertNull("Children don't have a goban", child.getGoban());
+		}
+	}
+
+	@Test
+	public void testRave() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.raveEquivalence = 1000;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		for (int i = 0; i < 100; i++)
+			evaluator.evaluateSequenceByUCT(root, null);
+		int visits = 0;
+		int raveVisits = 0;
+		for (AnalysisNode child : root.children) {
+			if (child.isPass())
+				continue;
+			assertTrue("Each visit is also an AMAF visit", child.getRaveVisits() >= child.getVisits());
+			visits += child.getVisits();
+			raveVisits += child.getRaveVisits();
+		}
+		assertTrue("AMAF statistics are collected from the playouts", raveVisits > visits);
+	}
+
+	@Test
+	public void testTreeReuse() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 200;
+		Evaluator.parameters.earlyStopping = false;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+		// the best move, the pass doesn't occupy a point
+		AnalysisNode best = null;
+		for (AnalysisNode node : root.children)
+			if (node.getMove() != null && (best == null || node.getValueSum() > best.getValueSum()))
+				best = node;
+		int visits = best.getVisits();
+
+		AnalysisGoban next = new AnalysisGoban(goban);
+		next.move(best.getMove(), movingColor);
+		AnalysisNode child = root.advance(best.getMove(), next);
+		assertSame("Child is reused", best, child);
+		assertNull("Child is detached", child.parent);
+		assertNotNull("Child has a goban", child.getGoban());
+
+		Evaluator.parameters.numSimulations = 100;
+		evaluator.evaluate(child);
+		assertEquals("Move number relative to the new root", 0, child.moveNo);
+		assertEquals("Visits are kept", visits + 100, child.getVisits());
+		assertNull("No child for an occupied point", child.advance(best.getMove(), next));
+	}
+
+	@Test
+	public void testTreeReuseRootParallel() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 200;
+		Evaluator.parameters.earlyStopping = false;
+		Evaluator.parameters.parallelism = Evaluator.Parallelism.ROOT;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+		AnalysisNode best = root.getBestChild();
+		int visits = best.getVisits();
+
+		evaluator.evaluate(root);
+		assertEquals("Visits are kept", 400, root.getVisits());
+		boolean kept = false;
+		for (AnalysisNode child : root.children)
+			kept |= child == best;
+		assertTrue("Children are kept", kept);
+		assertTrue("Visits of the child are kept", best.getVisits() >= visits);
+	}
+
+	@Test
+	public void testIsDecided() {
+		int[] visits = { 100, 40, 10 };
+		double[] valueSums = { 60, 20, 5 };
+		assertTrue("Lead can't be caught up", Evaluator.isDecided(visits, valueSums, 3, 39, 0));
+		assertFalse("Lead can be caught up", Evaluator.isDecided(visits, valueSums, 3, 41, 0));
+		assertFalse("Child with few visits", Evaluator.isDecided(visits, valueSums, 3, 1000, 2));
+
+		visits = new int[] { 1000, 500, 0 };
+		valueSums = new double[] { 700, 200, 0 };
+		assertTrue("Confidence intervals separate", Evaluator.isDecided(visits, valueSums, 3, 1000, 3));
+		valueSums = new double[] { 700, 340, 0 };
+		assertFalse("Confidence intervals overlap", Evaluator.isDecided(visits, valueSums, 3, 1000, 3));
+	}
+
+	@Test
+	public void testSeed() {
+		Map<Point, Double> first = seededSearch(42, 1, Evaluator.Parallelism.TREE);
+		assertEquals("Same seed, same search", first, seededSearch(42, 1, Evaluator.Parallelism.TREE));
+		assertFalse("Other seed, other search", first.equals(seededSearch(43, 1, Evaluator.Parallelism.TREE)));
+	}
+
+	@Test
+	public void testSeedLeafParallel() {
+		Map<Point, Double> first = seededSearch(42, 4, Evaluator.Parallelism.LEAF);
+		assertEquals("Same seed, same search", first, seededSearch(42, 4, Evaluator.Parallelism.LEAF));
+	}
+
+	private Map<Point, Double> seededSearch(long seed, int numThreads, Evaluator.Parallelism parallelism) {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 200;
+		Evaluator.parameters.numThreads = numThreads;
+		Evaluator.parameters.earlyStopping = false;
+		Evaluator.parameters.seed = seed;
+		Evaluator.parameters.parallelism = parallelism;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+		Map<Point, Double> values = new HashMap<Point, Double>();
+		for (AnalysisNode child : root.children)
+			values.put(child.getMove(), child.getValueSum());
+		return values;
+	}
+
+	@Test
+	public void testRootParallel() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 200;
+		Evaluator.parameters.earlyStopping = false;
+		Evaluator.parameters.parallelism = Evaluator.Parallelism.ROOT;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+		assertEquals("Visits of all trees", 200, root.getVisits());
+		int visits = 0;
+		for (AnalysisNode child : root.children)
+			visits += child.getVisits();
+		assertEquals("Children are merged", 200, visits);
+		assertNotNull("Best child", root.getBestChild());
+	}
+
+	@Test
+	public void testLeafParallel() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 200;
+		Evaluator.parameters.numThreads = 4;
+		Evaluator.parameters.earlyStopping = false;
+		Evaluator.parameters.parallelism = Evaluator.Parallelism.LEAF;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+		assertEquals("Number of playouts", 200, root.getVisits());
+		for (AnalysisNode child : root.children)
+			assertEquals("Four playouts per leaf", 0, child.getVisits() % 4);
+		assertTrue("Playout rate is measured", evaluator.getPlayoutsPerSecond() > 0);
+	}
+
+	@Test
+	public void testMetrics() {
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 200;
+		Evaluator.parameters.numThreads = 2;
+		Evaluator.parameters.earlyStopping = false;
+
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+		SearchMetrics metrics = evaluator.getMetrics();
+		assertFalse("Search is done", metrics.isSearching());
+		assertEquals("Threads", 2, metrics.getThreads());
+		assertEquals("Rates per thread", 2, metrics.getPlayoutsPerSecondPerThread().length);
+		assertEquals("Simulations", 200, metrics.getSimulations());
+		assertTrue("Playout rate", metrics.getPlayoutsPerSecond() > 0);
+		assertTrue("Playout length", metrics.getAveragePlayoutLength() > 0);
+		assertTrue("Max playout length", metrics.getMaxPlayoutLength() >= metrics.getAveragePlayoutLength());
+		assertTrue("Depth", metrics.getMaxDepth() > 0);
+		assertTrue("Tree nodes", metrics.getTreeNodes() > root.children.size());
+		assertTrue("Tree memory", metrics.getTreeMemoryEstimate() > 0);
+		assertTrue("Playout time", metrics.getPlayoutTime() > 0);
+		assertTrue("Report", metrics.toString().contains("tree_nodes " + metrics.getTreeNodes()));
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		final Evaluator evaluator = new Evaluator();
+		final AnalysisNode root = new AnalysisNode(goban, movingColor);
+		Thread search = new Thread() {
+			@Override
+			public void run() {
+				evaluator.evaluate(root, Long.MAX_VALUE);
+			}
+		};
+		search.start();
+		Thread.sleep(500);
+		evaluator.stop();
+		search.join(5000);
+		assertTrue("Search is stopped", !search.isAlive());
+		assertTrue("Statistics are kept", root.getVisits() > 0);
+	}
+
+	@Test
+	public void testPonder() throws Exception {
+		final Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.earlyStopping = true;
+		double stopConfidence = Evaluator.parameters.stopConfidence;
+		// with such narrow intervals a search is decided almost at once
+		Evaluator.parameters.stopConfidence = 0.01;
+		try {
+			AnalysisNode decided = new AnalysisNode(goban, movingColor);
+			long deadline = System.currentTimeMillis() + 20000;
+			evaluator.evaluate(decided, deadline);
+			assertTrue("A search stops early", System.currentTimeMillis() < deadline);
+
+			final AnalysisNode root = new AnalysisNode(goban, movingColor);
+			Thread ponder = new Thread() {
+				@Override
+				public void run() {
+					evaluator.ponder(root);
+				}
+			};
+			ponder.start();
+			Thread.sleep(1000);
+			assertTrue("Pondering doesn't stop early", ponder.isAlive());
+			evaluator.stop();
+			ponder.join(5000);
+			assertTrue("Pondering is stopped", !ponder.isAlive());
+			assertTrue("Statistics are kept", root.getVisits() > 0);
+		} finally {
+			Evaluator.parameters.stopConfidence = stopConfidence;
+		}
 	}
 
 	@Test
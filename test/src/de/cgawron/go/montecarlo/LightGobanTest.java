@@ -0,0 +1,195 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.Point;
+import de.cgawron.go.SimpleGoban;
+
+/**
+ * Test class for LightGoban and Playout
+ * @author Christian Gawron
+ */
+public class LightGobanTest extends GobanTest 
+{
+	private static Logger logger = Logger.getLogger(LightGobanTest.class.getName());
+
+	public LightGobanTest() {
+		new Evaluator();
+	}
+
+	@Test
+	public void testCapture() 
+	{
+		LightGoban goban = new LightGoban(7);
+		goban.move(0, 0, BoardType.BLACK);
+		goban.move(1, 0, BoardType.WHITE);
+		assertTrue("Black stone should be in atari", goban.isAtari(goban.chain[0]));
+		assertEquals("Liberty of black stone", 1, goban.atariLiberty(goban.chain[0]));
+		goban.move(0, 1, BoardType.WHITE);
+		assertEquals("Check number of captured stones", 1, goban.getBlackCaptured());
+		assertEquals("Check that [0, 0] is empty", BoardType.EMPTY, goban.getStone(0, 0));
+		assertFalse("Check that suicide is illegal", goban.move(0, 0, BoardType.BLACK));
+		assertEquals("Liberties of white stone", 4, goban.libertiesAfter(2 * 7, LightGoban.WHITE, 4));
+	}
+
+	@Test
+	public void testKo() throws Exception
+	{
+		LightGoban goban = new LightGoban(getGoban("ko1.sgf"));
+		assertTrue("Capturing the ko is legal", goban.move(3, 1, BoardType.BLACK));
+		assertEquals("Check ko point", 2 * 5 + 1, goban.ko);
+		assertFalse("Recapturing the ko is illegal", goban.move(2, 1, BoardType.WHITE));
+		goban.pass();
+		assertTrue("Recapturing the ko is legal after a pass", goban.move(2, 1, BoardType.WHITE));
+	}
+
+	@Test
+	public void testScore() throws Exception
+	{
+		assertEquals("score of simpleScore1.sgf", 9, new LightGoban(getGoban("simpleScore1.sgf")).chineseScore(null));
+		assertEquals("score of simpleScore2.sgf", 5, new LightGoban(getGoban("simpleScore2.sgf")).chineseScore(null));
+	}
+
+	/**
+	 * Play random games and compare the board with a SimpleGoban after each move.
+	 */
+	@Test
+	public void testRandomGames()
+	{
+		Random random = new Random(4711);
+		int size = 9;
+		for (int game = 0; game < 20; game++) {
+			LightGoban goban = new LightGoban(size);
+			Goban reference = new SimpleGoban(size);
+			BoardType color = BoardType.BLACK;
+			for (int move = 0; move < 150; move++) {
+				int p = goban.empty[random.nextInt(goban.numEmpty)];
+				int x = p / size;
+				int y = p % size;
+				if (goban.move(x, y, color)) {
+					reference.move(x, y, color);
+				}
+				for (Point q : Point.all(size)) {
+					assertEquals("Comparing " + q + " after move " + move + reference, 
+								 reference.getStone(q), goban.getStone(q));
+				}
+				color = color.opposite();
+			}
+		}
+	}
+
+	/**
+	 * Make random moves, then take them back and check that the board is
+	 * restored exactly.
+	 */
+	@Test
+	public void testUnmake()
+	{
+		Random random = new Random(4711);
+		int size = 9;
+		LightGoban goban = new LightGoban(size);
+		byte color = LightGoban.BLACK;
+		for (int move = 0; move < 60; move++) {
+			int p = goban.empty[random.nextInt(goban.numEmpty)];
+			if (goban.isLegal(p, color))
+				goban.play(p, color);
+			color = LightGoban.opposite(color);
+		}
+		LightGoban reference = goban.clone();
+
+		for (int move = 0; move < 100; move++) {
+			int p = goban.empty[random.nextInt(goban.numEmpty)];
+			goban.make(goban.isLegal(p, color) ? p : LightGoban.NONE, color);
+			color = LightGoban.opposite(color);
+		}
+		assertEquals("Check depth", 100, goban.getDepth());
+		assertTrue("Check that stones were captured", goban.getBlackCaptured() + goban.getWhiteCaptured() > reference.getBlackCaptured() + reference.getWhiteCaptured());
+		while (goban.getDepth() > 0)
+			goban.unmake();
+
+		assertEquals("Check key", reference.zobristKey(), goban.zobristKey());
+		assertEquals("Check ko", reference.ko, goban.ko);
+		assertEquals("Check captured", reference.getBlackCaptured(), goban.getBlackCaptured());
+		assertEquals("Check number of empty points", reference.numEmpty, goban.numEmpty);
+		for (int p = 0; p < size * size; p++) {
+			assertEquals("Check color at " + p, reference.color[p], goban.color[p]);
+			assertEquals("Check empty points", reference.empty[p], goban.empty[p]);
+			if (goban.color[p] != LightGoban.EMPTY) {
+				assertEquals("Check chain at " + p, reference.chain[p], goban.chain[p]);
+				assertEquals("Check next at " + p, reference.next[p], goban.next[p]);
+				int root = goban.chain[p];
+				assertEquals("Check chain size at " + p, reference.chainSize[root], goban.chainSize[root]);
+				assertEquals("Check liberties at " + p, reference.libertySumSquares[root], goban.libertySumSquares[root]);
+			}
+		}
+	}
+
+	@Test
+	public void testChangedPoints()
+	{
+		Random random = new Random(4711);
+		int size = 9;
+		LightGoban goban = new LightGoban(size);
+		int[] points = new int[size * size];
+		double[][] suitability = new double[3][size * size];
+		assertEquals("Check all points changed", size * size, goban.changedPoints(points));
+		for (int p = 0; p < size * size; p++) {
+			suitability[LightGoban.BLACK][p] = goban.suitability(p, LightGoban.BLACK);
+			suitability[LightGoban.WHITE][p] = goban.suitability(p, LightGoban.WHITE);
+		}
+
+		byte color = LightGoban.BLACK;
+		for (int move = 0; move < 300; move++) {
+			int p = goban.empty[random.nextInt(goban.numEmpty)];
+			if (goban.isLegal(p, color))
+				goban.play(p, color);
+			else
+				goban.pass();
+			color = LightGoban.opposite(color);
+
+			boolean[] changed = new boolean[size * size];
+			int n = goban.changedPoints(points);
+			for (int i = 0; i < n; i++)
+				changed[points[i]] = true;
+			for (int q = 0; q < size * size; q++) {
+				for (byte c = LightGoban.BLACK; c <= LightGoban.WHITE; c++) {
+					double s = goban.suitability(q, c);
+					if (!changed[q])
+						assertEquals("Check suitability of unchanged point " + q, suitability[c][q], s, 0);
+					suitability[c][q] = s;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPlayout() throws Exception
+	{
+		int size = 7;
+		Ownership ownership = new Ownership();
+		ownership.start(size);
+		AnalysisNode root = new AnalysisNode(new AnalysisGoban(size), BoardType.BLACK, 0);
+		for (int i = 0; i < 10; i++) {
+			double score = Playout.get().run(root, ownership.attach());
+			logger.info("score: " + score + Playout.get().getBoard());
+			assertTrue("Score within board size", Math.abs(score) <= size * size);
+		}
+		assertEquals("Playouts", 10, ownership.getPlayouts());
+		double[][] territory = ownership.getOwnership();
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				assertTrue("Territory at " + x + ", " + y, Math.abs(territory[x][y]) <= 1);
+	}
+}
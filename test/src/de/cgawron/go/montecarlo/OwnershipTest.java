@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.sgf.GameTree;
+
+/**
+ * Test class for Ownership
+ * @author Christian Gawron
+ */
+public class OwnershipTest 
+{
+	@Test
+	public void testRecord()
+	{
+		int size = 3;
+		LightGoban black = new LightGoban(size);
+		LightGoban white = new LightGoban(size);
+		for (int y = 0; y < size; y++) {
+			black.putStone(1, y, BoardType.BLACK);
+			white.putStone(1, y, BoardType.WHITE);
+		}
+
+		Ownership ownership = new Ownership();
+		ownership.start(size);
+		Ownership.ThreadOwnership counts = ownership.attach();
+		assertEquals("Score of black", 9, black.areaScore(counts.owner));
+		counts.record(9 - 0.5);
+		double[][] territory = ownership.getOwnership();
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				assertEquals("Ownership at " + x + ", " + y, 1, territory[x][y], 0);
+
+		assertEquals("Score of white", -9, white.areaScore(counts.owner));
+		counts.record(-9 - 0.5);
+		assertEquals("Playouts", 2, ownership.getPlayouts());
+		territory = ownership.getOwnership();
+		double[][] criticality = ownership.getCriticality();
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				assertEquals("Ownership at " + x + ", " + y, 0, territory[x][y], 0);
+				assertEquals("Criticality at " + x + ", " + y, 0.5, criticality[x][y], 1e-9);
+			}
+		}
+
+		ownership.start(size);
+		assertEquals("Playouts of a new search", 0, ownership.getPlayouts());
+		assertTrue("Counts are reset", ownership.attach() == counts);
+		assertEquals("Playouts after reset", 0, ownership.getPlayouts());
+	}
+
+	@Test
+	public void testSearch() throws Exception
+	{
+		GameTree gameTree = new GameTree(new File("test/sgf/evaluate1.sgf"));
+		Goban goban = gameTree.getLeafs().get(0).getGoban();
+		final Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 2000;
+		Evaluator.parameters.numThreads = 4;
+		Evaluator.parameters.earlyStopping = false;
+
+		final AnalysisNode root = new AnalysisNode(goban, BoardType.BLACK);
+		Thread search = new Thread() {
+			@Override
+			public void run() {
+				evaluator.evaluate(root);
+			}
+		};
+		search.start();
+		while (search.isAlive()) {
+			checkBounds(evaluator.getOwnership());
+			Thread.sleep(1);
+		}
+		search.join();
+
+		Ownership ownership = evaluator.getOwnership();
+		assertEquals("Board size", goban.getBoardSize(), ownership.getBoardSize());
+		assertEquals("Playouts", evaluator.getMetrics().getSimulations(), ownership.getPlayouts());
+		checkBounds(ownership);
+	}
+
+	private void checkBounds(Ownership ownership)
+	{
+		for (double[] column : ownership.getOwnership())
+			for (double v : column)
+				assertTrue("Ownership within bounds", Math.abs(v) <= 1);
+		for (double[] column : ownership.getCriticality())
+			for (double v : column)
+				assertTrue("Criticality within bounds", Math.abs(v) <= 1);
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.cgawron.go.Goban.BoardType;
+
+/**
+ * Test class for PatternTable
+ * @author Christian Gawron
+ */
+public class PatternTableTest 
+{
+	@Test
+	public void testSymmetry() throws Exception
+	{
+		PatternTable table = new PatternTable();
+		table.read(new StringReader("# hane\nXOX ... ??? 3.0\n"));
+
+		LightGoban goban = new LightGoban(9);
+		goban.putStone(4, 4, BoardType.BLACK);
+		goban.putStone(4, 6, BoardType.BLACK);
+		goban.putStone(4, 5, BoardType.WHITE);
+		int p = 5 * 9 + 5;
+		assertEquals("Check black to move", 3, table.weight(goban.pattern(p), LightGoban.BLACK), 0);
+		assertEquals("Check white to move", 1, table.weight(goban.pattern(p), LightGoban.WHITE), 0);
+		assertEquals("Check other point", 1, table.weight(goban.pattern(p + 1), LightGoban.BLACK), 0);
+
+		goban = new LightGoban(9);
+		goban.putStone(4, 4, BoardType.WHITE);
+		goban.putStone(6, 4, BoardType.WHITE);
+		goban.putStone(5, 4, BoardType.BLACK);
+		assertEquals("Check rotated pattern with white to move", 3, table.weight(goban.pattern(p), LightGoban.WHITE), 0);
+		assertEquals("Check rotated pattern with black to move", 1, table.weight(goban.pattern(p), LightGoban.BLACK), 0);
+	}
+
+	@Test
+	public void testEdge() throws Exception
+	{
+		PatternTable table = new PatternTable();
+		table.read(new StringReader("X.? O.? --- 2.0"));
+
+		LightGoban goban = new LightGoban(9);
+		goban.putStone(7, 3, BoardType.BLACK);
+		goban.putStone(8, 3, BoardType.WHITE);
+		assertEquals("Check pattern at the edge", 2, table.weight(goban.pattern(8 * 9 + 4), LightGoban.BLACK), 0);
+		goban = new LightGoban(9);
+		goban.putStone(6, 3, BoardType.BLACK);
+		goban.putStone(7, 3, BoardType.WHITE);
+		assertEquals("Check pattern away from the edge", 1, table.weight(goban.pattern(7 * 9 + 4), LightGoban.BLACK), 0);
+	}
+
+	@Test
+	public void testIncremental()
+	{
+		Random random = new Random(4711);
+		int size = 9;
+		LightGoban goban = new LightGoban(size);
+		byte color = LightGoban.BLACK;
+		for (int move = 0; move < 300; move++) {
+			int p = goban.empty[random.nextInt(goban.numEmpty)];
+			if (move < 150) {
+				if (goban.isLegal(p, color))
+					goban.play(p, color);
+			}
+			else
+				goban.make(goban.isLegal(p, color) ? p : LightGoban.NONE, color);
+			color = LightGoban.opposite(color);
+			checkPatterns(goban);
+		}
+		while (goban.getDepth() > 0) {
+			goban.unmake();
+			checkPatterns(goban);
+		}
+
+		BitGoban bitGoban = new BitGoban(goban);
+		for (int p = 0; p < size * size; p++)
+			assertEquals("Check BitGoban pattern at " + p, goban.pattern(p), bitGoban.pattern(p));
+	}
+
+	private void checkPatterns(LightGoban goban)
+	{
+		int size = goban.getBoardSize();
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				int code = 0;
+				for (int k = 0; k < 8; k++) {
+					int u = x + PatternTable.OFFSETS[k][0];
+					int v = y + PatternTable.OFFSETS[k][1];
+					if (u < 0 || u >= size || v < 0 || v >= size)
+						code |= PatternTable.OFF_BOARD << 2 * k;
+					else
+						code |= goban.color[u * size + v] << 2 * k;
+				}
+				assertEquals("Check pattern at " + x + ", " + y, code, goban.pattern(x * size + y));
+			}
+		}
+	}
+
+	@Test
+	public void testLoad() throws Exception
+	{
+		PatternTable.load(new File("test/patterns/mogo.pat"));
+		try {
+			new PatternTable().read(new StringReader("XOX .X. ??? 3.0"));
+			fail("Occupied center not detected");
+		} catch (IOException ex) {
+		}
+	}
+}
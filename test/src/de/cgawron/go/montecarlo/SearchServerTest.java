@@ -0,0 +1,222 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.sgf.GameTree;
+
+/**
+ * Test class for SearchServer
+ * @author Christian Gawron
+ */
+public class SearchServerTest 
+{
+	private Goban goban;
+	private BoardType movingColor = BoardType.BLACK;
+
+	public SearchServerTest() throws Exception
+	{
+		GameTree gameTree = new GameTree(new File("test/sgf/evaluate1.sgf"));
+		goban = gameTree.getLeafs().get(0).getGoban();
+	}
+
+	@Test
+	public void testRequest() throws Exception
+	{
+		AnalysisNode root = new AnalysisNode(goban, movingColor, 5.5);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SearchServer.writeRequest(new DataOutputStream(bytes), root, 1234, 5000);
+
+		SearchServer.Request request = SearchServer.readRequest(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals("Position", root.getKey(), request.root.getKey());
+		assertEquals("Moving color", movingColor, request.root.movingColor);
+		assertEquals("Komi", 5.5, request.root.komi, 0);
+		assertEquals("Simulations", 1234, request.numSimulations);
+		assertEquals("Time", 5000, request.time);
+	}
+
+	@Test
+	public void testStatistics() throws Exception
+	{
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.numSimulations = 100;
+		Evaluator.parameters.earlyStopping = false;
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+
+		RootStatistics statistics = new RootStatistics(root.boardSize * root.boardSize);
+		statistics.add(root);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		statistics.write(new DataOutputStream(bytes));
+		statistics = RootStatistics.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+		                                 root.boardSize * root.boardSize);
+
+		statistics.addTo(root);
+		assertEquals("Visits are added", 200, root.getVisits());
+		AnalysisNode copy = new AnalysisNode(goban, movingColor);
+		statistics.addTo(copy);
+		assertEquals("Visits are copied", 100, copy.getVisits());
+		assertEquals("Best move", root.getBestChild().getMove(), copy.getBestChild().getMove());
+	}
+
+	@Test
+	public void testIllegalBoardSize() throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(SearchServer.MAGIC);
+		out.writeInt(Zobrist.MAX_SIZE + 1);
+		try {
+			SearchServer.readRequest(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			fail("board size " + (Zobrist.MAX_SIZE + 1) + " accepted");
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testIllegalBudget() throws Exception
+	{
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		long[][] budgets = { { 100, -1 }, { 0, 0 }, { -1, 0 } };
+		for (long[] budget : budgets) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			SearchServer.writeRequest(new DataOutputStream(bytes), root, (int) budget[0], budget[1]);
+			try {
+				SearchServer.readRequest(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+				fail(budget[0] + " simulations and time " + budget[1] + " accepted");
+			} catch (IOException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testStatisticsSize() throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new RootStatistics(9 * 9).write(new DataOutputStream(bytes));
+		try {
+			RootStatistics.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 19 * 19);
+			fail("statistics for a different board size accepted");
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testBudget() throws Exception
+	{
+		final SearchServer server = new SearchServer(0);
+		Thread thread = new Thread() {
+			@Override
+			public void run()
+			{
+				try {
+					server.run();
+				} catch (IOException ex) {
+					// closed
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+
+		Evaluator.parameters.numSimulations = 100;
+		Evaluator.parameters.earlyStopping = false;
+		Evaluator.parameters.workers = null;
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		Socket socket = new Socket("localhost", server.getPort());
+		try {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			SearchServer.writeRequest(out, root, 50, 0);
+			out.flush();
+			RootStatistics statistics = SearchServer.readResponse(new DataInputStream(socket.getInputStream()),
+			                                                      root.boardSize * root.boardSize);
+			assertEquals("Visits of the request", 50, statistics.getVisits());
+			assertEquals("Shared budget", 100, Evaluator.parameters.numSimulations);
+		} finally {
+			socket.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void testDistributedSearch() throws Exception
+	{
+		List<Process> servers = new ArrayList<Process>();
+		try {
+			StringBuilder workers = new StringBuilder();
+			for (int i = 0; i < 2; i++) {
+				Process server = startServer();
+				servers.add(server);
+				BufferedReader reader = new BufferedReader(new InputStreamReader(server.getInputStream()));
+				String line = reader.readLine();
+				assertTrue("Server is listening: " + line, line != null && line.startsWith("listening on port "));
+				if (i > 0)
+					workers.append(",");
+				workers.append("localhost:").append(line.substring("listening on port ".length()));
+			}
+
+			Evaluator evaluator = new Evaluator();
+			Evaluator.parameters.numSimulations = 100;
+			Evaluator.parameters.earlyStopping = false;
+			Evaluator.parameters.workers = workers.toString();
+			AnalysisNode root = new AnalysisNode(goban, movingColor);
+			evaluator.evaluate(root);
+			assertEquals("Visits of all searches", 300, root.getVisits());
+		} finally {
+			Evaluator.parameters.workers = null;
+			for (Process server : servers)
+				server.destroy();
+		}
+	}
+
+	private Process startServer() throws Exception
+	{
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+		                                            SearchServer.class.getName(), "-port", "0", "-threads", "2");
+		builder.redirectErrorStream(false);
+		Process process = builder.start();
+		// the log goes to stderr, which has to be drained
+		final InputStream err = process.getErrorStream();
+		Thread drain = new Thread() {
+			@Override
+			public void run()
+			{
+				byte[] buffer = new byte[4096];
+				try {
+					while (err.read(buffer) >= 0)
+						;
+				} catch (IOException ex) {
+					// process ended
+				}
+			}
+		};
+		drain.setDaemon(true);
+		drain.start();
+		return process;
+	}
+}
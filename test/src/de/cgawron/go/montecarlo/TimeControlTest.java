@@ -0,0 +1,71 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import de.cgawron.go.Goban.BoardType;
+
+/**
+ * Test class for TimeControl
+ * @author Christian Gawron
+ */
+public class TimeControlTest 
+{
+	@Test
+	public void testUnlimited()
+	{
+		TimeControl timeControl = new TimeControl();
+		assertFalse("Check default", timeControl.isLimited());
+		assertEquals("Check unlimited", 0, timeControl.timeForMove(BoardType.BLACK, 81));
+		timeControl.setTimeSettings(0, 1, 0);
+		assertFalse("Check time_settings without stones", timeControl.isLimited());
+	}
+
+	@Test
+	public void testAbsolute()
+	{
+		TimeControl timeControl = new TimeControl();
+		timeControl.setAbsolute(600);
+		// 81 empty points are 27 moves
+		assertEquals("Check main time", 19700, timeControl.timeForMove(BoardType.BLACK, 81), 1);
+		// at least 15 moves are assumed
+		assertEquals("Check endgame", 35700, timeControl.timeForMove(BoardType.BLACK, 10), 1);
+
+		timeControl.setTimeLeft(BoardType.BLACK, 60, 0);
+		assertEquals("Check time_left", 1700, timeControl.timeForMove(BoardType.BLACK, 81), 1);
+		assertEquals("Check other color", 19700, timeControl.timeForMove(BoardType.WHITE, 81), 1);
+
+		timeControl.used(BoardType.WHITE, 600);
+		assertEquals("Check minimal time", 50, timeControl.timeForMove(BoardType.WHITE, 81));
+	}
+
+	@Test
+	public void testCanadian()
+	{
+		TimeControl timeControl = new TimeControl();
+		timeControl.setTimeSettings(0, 300, 25);
+		assertEquals("Check byo-yomi", 10500, timeControl.timeForMove(BoardType.BLACK, 81), 1);
+
+		timeControl.setTimeSettings(270, 300, 25);
+		assertEquals("Check main time", 19500, timeControl.timeForMove(BoardType.BLACK, 81), 1);
+		timeControl.used(BoardType.BLACK, 271);
+		assertEquals("Check byo-yomi after main time", 10500, timeControl.timeForMove(BoardType.BLACK, 81), 1);
+		timeControl.setTimeLeft(BoardType.BLACK, 20, 2);
+		assertEquals("Check time_left", 8700, timeControl.timeForMove(BoardType.BLACK, 81), 1);
+	}
+
+	@Test
+	public void testJapanese()
+	{
+		TimeControl timeControl = new TimeControl();
+		timeControl.setJapanese(0, 30, 5);
+		assertEquals("Check byo-yomi", 26700, timeControl.timeForMove(BoardType.BLACK, 81), 1);
+		timeControl.used(BoardType.BLACK, 10);
+		assertEquals("Check period is reset", 26700, timeControl.timeForMove(BoardType.BLACK, 81), 1);
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.Point;
+
+/**
+ * Test class for TranspositionTable
+ * @author Christian Gawron
+ */
+public class TranspositionTableTest extends GobanTest 
+{
+	public TranspositionTableTest() {
+		new Evaluator();
+	}
+
+	private List<AnalysisNode> createNodes(int n)
+	{
+		AnalysisNode root = new AnalysisNode(new AnalysisGoban(7), BoardType.BLACK);
+		List<AnalysisNode> nodes = new ArrayList<AnalysisNode>();
+		for (Point p : Point.all(7)) {
+			if (nodes.size() == n)
+				break;
+			nodes.add(root.createChild(p));
+		}
+		return nodes;
+	}
+
+	@Test
+	public void testKey() 
+	{
+		AnalysisNode root = new AnalysisNode(new AnalysisGoban(7), BoardType.BLACK);
+		AnalysisNode a = root.createChild(new Point(0, 0)).createChild(new Point(1, 1)).createChild(new Point(2, 2));
+		AnalysisNode b = root.createChild(new Point(2, 2)).createChild(new Point(1, 1)).createChild(new Point(0, 0));
+		assertEquals("Transposed positions have the same key", a.getKey(), b.getKey());
+		assertTrue("Side to move changes the key", a.getKey() != a.createPassNode().getKey());
+		assertTrue("Different positions have different keys", a.getKey() != a.parent.getKey());
+	}
+
+	@Test
+	public void testMoveOrders() 
+	{
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.wideningBase = 0;
+		AnalysisNode root = new AnalysisNode(new AnalysisGoban(7), BoardType.BLACK);
+
+		// B(0,0) W(1,1) B(2,2)
+		evaluator.createNode(root);
+		AnalysisNode a = child(root, 0 * 7 + 0);
+		evaluator.createNode(a);
+		AnalysisNode ab = child(a, 1 * 7 + 1);
+		evaluator.createNode(ab);
+		AnalysisNode abc = child(ab, 2 * 7 + 2);
+		evaluator.createNode(abc);
+
+		// B(2,2) W(1,1) B(0,0) ends in a different move
+		AnalysisNode c = child(root, 2 * 7 + 2);
+		evaluator.createNode(c);
+		AnalysisNode cb = child(c, 1 * 7 + 1);
+		evaluator.createNode(cb);
+		AnalysisNode cba = child(cb, 0 * 7 + 0);
+		assertSame("The position is shared", abc, cba);
+		assertEquals("Move of the node", 2 * 7 + 2, cba.getMoveIndex());
+		assertEquals("Move of the edge", 0 * 7 + 0, cb.getChildMoveIndex(cba));
+		assertEquals("Move of the other edge", 2 * 7 + 2, ab.getChildMoveIndex(abc));
+	}
+
+	@Test
+	public void testKo() 
+	{
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.wideningBase = 0;
+		// black captures the white stone at (1,2) by playing (2,2)
+		AnalysisGoban goban = new AnalysisGoban(7);
+		goban.putStone(1, 1, BoardType.BLACK);
+		goban.putStone(0, 2, BoardType.BLACK);
+		goban.putStone(1, 3, BoardType.BLACK);
+		goban.putStone(1, 2, BoardType.WHITE);
+		goban.putStone(2, 1, BoardType.WHITE);
+		goban.putStone(3, 2, BoardType.WHITE);
+		goban.putStone(2, 3, BoardType.WHITE);
+		AnalysisNode root = new AnalysisNode(goban, BoardType.BLACK);
+
+		// B(6,6) W(6,0) B(2,2) ends with the capture
+		evaluator.createNode(root);
+		AnalysisNode a = child(root, 6 * 7 + 6);
+		evaluator.createNode(a);
+		AnalysisNode ab = child(a, 6 * 7 + 0);
+		evaluator.createNode(ab);
+		AnalysisNode abk = child(ab, 2 * 7 + 2);
+		evaluator.createNode(abk);
+		assertEquals("Ko point", 1 * 7 + 2, abk.ko);
+
+		// B(2,2) W(6,0) B(6,6) has the same stones, but the ko is gone
+		AnalysisNode k = child(root, 2 * 7 + 2);
+		evaluator.createNode(k);
+		AnalysisNode kb = child(k, 6 * 7 + 0);
+		evaluator.createNode(kb);
+		AnalysisNode kba = child(kb, 6 * 7 + 6);
+		assertEquals("Same stones", abk.getPositionKey(), kba.getPositionKey());
+		assertTrue("The ko point changes the key", abk.getKey() != kba.getKey());
+		assertNotSame("The positions are not shared", abk, kba);
+
+		// the retake repeats the position on the path, not only of the parent chain
+		AnalysisNode[] sequence = { root, a, ab, abk };
+		AnalysisNode retake = child(abk, 1 * 7 + 2);
+		assertTrue("Retaking the ko is illegal", retake.isRepetition(sequence, 3));
+		assertFalse("Another move is legal", child(abk, 5 * 7 + 5).isRepetition(sequence, 3));
+	}
+
+	private static AnalysisNode child(AnalysisNode node, int p)
+	{
+		for (AnalysisNode child : node.children) {
+			if (node.getChildMoveIndex(child) == p)
+				return child;
+		}
+		throw new AssertionError("no child for " + p);
+	}
+
+	@Test
+	public void testPutAndGet() 
+	{
+		TranspositionTable table = new TranspositionTable(1 << 10);
+		List<AnalysisNode> nodes = createNodes(20);
+		for (AnalysisNode node : nodes)
+			assertSame(node, table.putIfAbsent(node));
+		assertEquals("Check size", 20, table.size());
+		for (AnalysisNode node : nodes)
+			assertSame(node, table.get(node.getKey()));
+
+		AnalysisNode copy = nodes.get(0).parent.createChild(nodes.get(0).getMove());
+		assertSame("Present node is returned", nodes.get(0), table.putIfAbsent(copy));
+
+		table.clear();
+		assertEquals("Check size", 0, table.size());
+		assertNull(table.get(nodes.get(0).getKey()));
+	}
+
+	@Test
+	public void testReplacement() 
+	{
+		TranspositionTable table = new TranspositionTable(4);
+		assertEquals("Check capacity", 4, table.capacity());
+		List<AnalysisNode> nodes = createNodes(6);
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j <= i; j++)
+				nodes.get(i).update(0.5, 0);
+			table.putIfAbsent(nodes.get(i));
+		}
+
+		// Not visited often enough to replace any node
+		table.putIfAbsent(nodes.get(4));
+		assertNull(table.get(nodes.get(4).getKey()));
+
+		// Replaces the least visited node
+		nodes.get(5).update(0.5, 0);
+		nodes.get(5).update(0.5, 0);
+		table.putIfAbsent(nodes.get(5));
+		assertSame(nodes.get(5), table.get(nodes.get(5).getKey()));
+		assertNull(table.get(nodes.get(0).getKey()));
+		assertEquals("Check size", 4, table.size());
+	}
+
+	@Test
+	public void testConcurrentPut() throws Exception
+	{
+		final TranspositionTable table = new TranspositionTable(1 << 10);
+		final List<AnalysisNode> nodes = createNodes(49);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (AnalysisNode node : nodes)
+						table.putIfAbsent(node);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals("Check size", 49, table.size());
+		for (AnalysisNode node : nodes)
+			assertSame(node, table.get(node.getKey()));
+	}
+}
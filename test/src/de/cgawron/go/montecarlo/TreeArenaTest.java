@@ -0,0 +1,93 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import de.cgawron.go.Goban;
+import de.cgawron.go.Goban.BoardType;
+import de.cgawron.go.sgf.GameTree;
+
+/**
+ * Test class for TreeArena
+ * @author Christian Gawron
+ */
+public class TreeArenaTest 
+{
+	private Goban goban;
+	private BoardType movingColor = BoardType.BLACK;
+
+	public TreeArenaTest() throws Exception
+	{
+		new Evaluator();
+		GameTree gameTree = new GameTree(new File("test/sgf/evaluate1.sgf"));
+		goban = gameTree.getLeafs().get(0).getGoban();
+	}
+
+	@Test
+	public void testSimulate()
+	{
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		TreeArena arena = new TreeArena(1 << 16);
+		arena.reset(root, new LightGoban(goban));
+		for (int i = 0; i < 200; i++)
+			arena.simulate(null);
+
+		assertEquals("Number of visits", 200, arena.getVisits(0));
+		int visits = 0;
+		int first = arena.getFirstChild(0);
+		assertTrue("Root is expanded", first > 0);
+		for (int c = first; c < first + arena.getChildCount(0); c++)
+			visits += arena.getVisits(c);
+		assertEquals("Visits of the children", 199, visits);
+		assertTrue("Number of nodes", arena.size() > 200);
+
+		arena.reset(root, new LightGoban(goban));
+		assertEquals("Size after reset", 1, arena.size());
+		assertEquals("Visits after reset", 0, arena.getVisits(0));
+	}
+
+	@Test
+	public void testFull()
+	{
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		TreeArena arena = new TreeArena(200);
+		arena.reset(root, new LightGoban(goban));
+		for (int i = 0; i < 100; i++)
+			arena.simulate(null);
+		assertEquals("Number of visits", 100, arena.getVisits(0));
+		assertTrue("Capacity is not exceeded", arena.size() <= 200);
+	}
+
+	@Test
+	public void testEvaluate()
+	{
+		Evaluator evaluator = new Evaluator();
+		Evaluator.parameters.arenaTree = true;
+		Evaluator.parameters.numSimulations = 200;
+		Evaluator.parameters.earlyStopping = false;
+		AnalysisNode root = new AnalysisNode(goban, movingColor);
+		evaluator.evaluate(root);
+		assertEquals("Number of visits", 200, root.getVisits());
+		AnalysisNode best = root.getBestChild();
+		assertNotNull("Best child", best);
+		assertNotNull("Children have a goban", best.getGoban());
+		int visits = best.getVisits();
+
+		evaluator.evaluate(root);
+		assertEquals("Visits are kept", 400, root.getVisits());
+		AnalysisNode child = null;
+		for (AnalysisNode node : root.children)
+			if (node.getMoveIndex() == best.getMoveIndex())
+				child = node;
+		assertNotNull("Child is kept", child);
+		assertTrue("Visits of the child are kept", child.getVisits() >= visits);
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package de.cgawron.go.montecarlo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test class for WeightTree
+ * @author Christian Gawron
+ */
+public class WeightTreeTest 
+{
+	@Test
+	public void testSample() 
+	{
+		WeightTree tree = new WeightTree(81);
+		tree.set(3, 1);
+		tree.set(40, 2);
+		tree.set(80, 3);
+		assertEquals("Check total", 6, tree.total());
+		assertEquals(3, tree.sample(0));
+		assertEquals(40, tree.sample(1));
+		assertEquals(40, tree.sample(2));
+		assertEquals(80, tree.sample(3));
+		assertEquals(80, tree.sample(5));
+
+		tree.set(40, 0);
+		assertEquals("Check total after removal", 4, tree.total());
+		assertEquals(80, tree.sample(1));
+		tree.clear();
+		assertEquals("Check total after clear", 0, tree.total());
+	}
+
+	@Test
+	public void testDistribution() 
+	{
+		int size = 19 * 19;
+		Random random = new Random(4711);
+		WeightTree tree = new WeightTree(size);
+		long[] weights = new long[size];
+		for (int n = 0; n < 1000; n++) {
+			int i = random.nextInt(size);
+			weights[i] = random.nextInt(4) == 0 ? 0 : WeightTree.weight(random.nextDouble() * 5);
+			tree.set(i, weights[i]);
+		}
+
+		long total = 0;
+		for (int i = 0; i < size; i++) {
+			assertEquals("Check weight " + i, weights[i], tree.get(i));
+			total += weights[i];
+		}
+		assertEquals("Check total", total, tree.total());
+
+		long r = 0;
+		for (int i = 0; i < size; i++) {
+			if (weights[i] > 0) {
+				assertEquals("Check first value of " + i, i, tree.sample(r));
+				assertEquals("Check last value of " + i, i, tree.sample(r + weights[i] - 1));
+			}
+			r += weights[i];
+		}
+	}
+}